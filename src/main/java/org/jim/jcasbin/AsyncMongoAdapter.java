@@ -0,0 +1,486 @@
+package org.jim.jcasbin;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ReadConcern;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.reactivestreams.client.AggregatePublisher;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.casbin.jcasbin.exception.CasbinAdapterException;
+import org.casbin.jcasbin.model.Model;
+import org.casbin.jcasbin.persist.BatchAdapter;
+import org.casbin.jcasbin.persist.FilteredAdapter;
+import org.jim.jcasbin.MongoAdapterOptions.Operation;
+import org.jim.jcasbin.domain.CasbinRule;
+import org.reactivestreams.Publisher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AsyncMongoAdapter is the non-blocking companion of {@link MongoAdapter}, built on
+ * the MongoDB Reactive Streams driver.
+ * <p>
+ * Every operation has a variant returning a {@link CompletableFuture}, so policy changes
+ * can be persisted without tying up a thread. Loads stream the rules into the model with
+ * a bounded demand, {@link MongoAdapterOptions#getBatchSize()} rules at a time, and
+ * {@link #findPolicy(Bson)} exposes the same query as a {@link Publisher}. The blocking
+ * {@link BatchAdapter} methods wait for their asynchronous variant, so the adapter can
+ * also back an enforcer directly.
+ * <p>
+ * The index, load, concern and insert batching options apply as in {@link MongoAdapter}.
+ * Saves always replace the collection's content; the change log, versioning, snapshots,
+ * transactions, write-behind and retries are only provided by {@link MongoAdapter}.
+ */
+public class AsyncMongoAdapter implements BatchAdapter, FilteredAdapter {
+    private static final int DEFAULT_DEMAND = 1000;
+
+    private final MongoClient mongoClient;
+    private final String dbName;
+    private final String colName;
+    private final MongoAdapterOptions options;
+    private final IndexManager indexManager;
+    private final ChunkedInserter<CasbinRule> inserter;
+    private final ChunkedInserter<RawBsonDocument> rawInserter;
+    private final MongoCollection<CasbinRule> collection;
+    private final Map<Operation, MongoCollection<CasbinRule>> collections;
+    private final Map<Operation, MongoCollection<RawBsonDocument>> rawCollections;
+    private CompletableFuture<Void> indexesCreated;
+    private volatile boolean filtered;
+
+    public AsyncMongoAdapter(MongoClient mongoClient, String dbName) {
+        this(mongoClient, dbName, null);
+    }
+
+    public AsyncMongoAdapter(MongoClient mongoClient, String dbName, String colName) {
+        this(mongoClient, dbName, colName, null);
+    }
+
+    public AsyncMongoAdapter(MongoClient mongoClient, String dbName, String colName, MongoAdapterOptions options) {
+        this.mongoClient = mongoClient;
+
+        this.dbName = MongoAdapter.orDefault(dbName, MongoAdapter.DEFAULT_DB_NAME);
+        this.colName = MongoAdapter.orDefault(colName, MongoAdapter.DEFAULT_COL_NAME);
+        this.options = options == null ? MongoAdapterOptions.defaults() : options;
+
+        this.collection = this.mongoClient
+                .getDatabase(this.dbName)
+                .withCodecRegistry(MongoAdapter.CODEC_REGISTRY)
+                .getCollection(this.colName, CasbinRule.class);
+        this.collections = new EnumMap<>(Operation.class);
+        this.rawCollections = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            this.collections.put(operation, this.withConcerns(this.collection, operation));
+            this.rawCollections.put(operation,
+                    this.withConcerns(this.collection.withDocumentClass(RawBsonDocument.class), operation));
+        }
+        if (this.options.getReadPreference() != null) {
+            this.collections.put(Operation.LOAD,
+                    this.collections.get(Operation.LOAD).withReadPreference(this.options.getReadPreference()));
+        }
+
+        this.indexManager = new IndexManager(this.options);
+        this.inserter = ChunkedInserter.forRules(this.options.getInsertBatchSize(),
+                this.options.getInsertBatchBytes(), 1, this.options.isIgnoreDuplicates(), null);
+        this.rawInserter = new ChunkedInserter<>(this.options.getInsertBatchSize(),
+                this.options.getInsertBatchBytes(), 1, this.options.isIgnoreDuplicates(),
+                RuleDocuments::size, RuleDocuments::upsert, null);
+        // Writes wait for the indexes, so a unique policy index is in place before the first insert.
+        this.indexesCreated = this.createIndexes();
+    }
+
+    public MongoAdapterOptions getOptions() {
+        return this.options;
+    }
+
+    private <T> MongoCollection<T> withConcerns(MongoCollection<T> collection, Operation operation) {
+        WriteConcern writeConcern = this.options.getWriteConcerns().get(operation);
+        if (writeConcern != null) {
+            collection = collection.withWriteConcern(writeConcern);
+        }
+        ReadConcern readConcern = this.options.getReadConcerns().get(operation);
+        if (readConcern == null && operation == Operation.LOAD) {
+            readConcern = this.options.getReadConcern();
+        }
+        if (readConcern != null) {
+            collection = collection.withReadConcern(readConcern);
+        }
+        return collection;
+    }
+
+    private MongoCollection<CasbinRule> getLoadCollection() {
+        MongoCollection<CasbinRule> collection = this.collections.get(Operation.LOAD);
+        return this.options.getInternStrings() > 0
+                ? collection.withCodecRegistry(MongoAdapter.loadCodecRegistry(this.options))
+                : collection;
+    }
+
+    private CompletableFuture<Void> createIndexes() {
+        List<IndexModel> indexes = this.indexManager.getIndexes();
+        if (indexes.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return Publishers.last(this.collection.createIndexes(indexes)).handle((name, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause()
+                    : error;
+            if (cause == null || this.indexManager.isTolerable(cause)) {
+                return null;
+            }
+            throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(cause);
+        });
+    }
+
+    /**
+     * Returns the creation of the indexes, started again if the last one failed, so an
+     * unreachable server at startup does not fail every later write.
+     */
+    private synchronized CompletableFuture<Void> indexesCreated() {
+        if (this.indexesCreated.isCompletedExceptionally()) {
+            this.indexesCreated = this.createIndexes();
+        }
+        return this.indexesCreated;
+    }
+
+    private int demand() {
+        return this.options.getBatchSize() > 0 ? this.options.getBatchSize() : DEFAULT_DEMAND;
+    }
+
+    /**
+     * Streams the rules matching the filter, like the loads do. The publisher honours
+     * the subscriber's demand, so rules are only fetched as fast as they are consumed.
+     *
+     * @param filter the filter, or null for all rules.
+     * @return a publisher of the rules, deduplicated on the server with
+     * {@link MongoAdapterOptions.Deduplication#SERVER}.
+     */
+    public Publisher<CasbinRule> findPolicy(Bson filter) {
+        return this.find(this.getLoadCollection(), filter == null ? new Document() : filter);
+    }
+
+    /**
+     * Loads all policy rules from the storage.
+     *
+     * @param model the model.
+     * @return a future completed once every rule is in the model.
+     */
+    public CompletableFuture<Void> loadPolicyAsync(Model model) {
+        MongoCollection<CasbinRule> collection = this.getLoadCollection();
+        CompletableFuture<Void> loaded = this.options.getLoadParallelism() > 1
+                ? this.parallelLoading(model, collection)
+                : this.loading(model, collection, new Document());
+        return loaded.thenRun(() -> this.filtered = false);
+    }
+
+    /**
+     * Loads only policy rules that match the filter.
+     *
+     * @param model  the model.
+     * @param filter a {@link PolicyFilter}, a jCasbin {@link org.casbin.jcasbin.persist.file_adapter.FilteredAdapter.Filter},
+     *               or null to load all policy rules.
+     * @return a future completed once every matching rule is in the model.
+     * @throws CasbinAdapterException if the filter type is not supported.
+     */
+    public CompletableFuture<Void> loadFilteredPolicyAsync(Model model, Object filter) throws CasbinAdapterException {
+        if (filter == null) {
+            return this.loadPolicyAsync(model);
+        }
+        PolicyFilter policyFilter = PolicyFilter.of(filter);
+        return this.loading(model, this.getLoadCollection(), policyFilter.toBson())
+                .thenRun(() -> this.filtered = true);
+    }
+
+    private CompletableFuture<Void> loading(Model model, MongoCollection<CasbinRule> collection, Bson filter) {
+        boolean merge = this.options.getDeduplication() == MongoAdapterOptions.Deduplication.CLIENT;
+        return Publishers.forEach(this.find(collection, filter), this.demand(),
+                casbinRule -> MongoAdapter.loadPolicyLine(casbinRule, model, merge));
+    }
+
+    /**
+     * Loads the rules of each policy type on its own cursor. Every policy type feeds
+     * a distinct assertion, so the streams never write to shared state.
+     */
+    private CompletableFuture<Void> parallelLoading(Model model, MongoCollection<CasbinRule> collection) {
+        List<String> ptypes = new ArrayList<>();
+        return Publishers.forEach(collection
+                        .distinct("ptype", String.class)
+                        .maxTime(this.options.getMaxTimeMS(), TimeUnit.MILLISECONDS),
+                this.demand(), ptypes::add)
+                .thenCompose(v -> {
+                    if (ptypes.size() <= 1) {
+                        return this.loading(model, collection, new Document());
+                    }
+                    CompletableFuture<?>[] partitions = new CompletableFuture<?>[ptypes.size()];
+                    for (int i = 0; i < partitions.length; i++) {
+                        partitions[i] = this.loading(model, collection, Filters.eq("ptype", ptypes.get(i)));
+                    }
+                    return CompletableFuture.allOf(partitions);
+                });
+    }
+
+    private Publisher<CasbinRule> find(MongoCollection<CasbinRule> collection, Bson filter) {
+        if (this.options.getDeduplication() == MongoAdapterOptions.Deduplication.SERVER) {
+            AggregatePublisher<CasbinRule> distinctRules = collection
+                    .aggregate(MongoAdapter.distinctPipeline(filter))
+                    .allowDiskUse(true)
+                    .maxTime(this.options.getMaxTimeMS(), TimeUnit.MILLISECONDS);
+            if (this.options.getBatchSize() > 0) {
+                distinctRules.batchSize(this.options.getBatchSize());
+            }
+            if (this.options.isCoveringIndex()) {
+                distinctRules.hint(IndexManager.POLICY_INDEX);
+            }
+            return distinctRules;
+        }
+        FindPublisher<CasbinRule> findAll = collection
+                .find(filter)
+                .projection(MongoAdapter.POLICY_PROJECTION)
+                .maxTime(this.options.getMaxTimeMS(), TimeUnit.MILLISECONDS)
+                .noCursorTimeout(this.options.isNoCursorTimeout());
+        if (this.options.getBatchSize() > 0) {
+            findAll.batchSize(this.options.getBatchSize());
+        }
+        if (this.options.isCoveringIndex()) {
+            findAll.hint(IndexManager.POLICY_INDEX);
+        }
+        return findAll;
+    }
+
+    /**
+     * Replaces the stored policy with the policy of the model. The collection is dropped,
+     * its indexes recreated, and the rules streamed from the model in chunks.
+     *
+     * @param model the model.
+     * @return a future completed once every rule is stored.
+     */
+    public CompletableFuture<Void> savePolicyAsync(Model model) {
+        MongoCollection<CasbinRule> collection = this.collections.get(Operation.SAVE);
+        return Publishers.last(collection.drop())
+                .thenCompose(v -> this.createIndexes())
+                .thenCompose(v -> this.insert(collection, this.inserter, CasbinRule.iterateCasbinRules(model, null)));
+    }
+
+    /**
+     * Inserts the documents in chunks, over up to {@link MongoAdapterOptions#getWriteParallelism()}
+     * chains of inserts drawing from the same iterator.
+     */
+    private <T> CompletableFuture<Void> insert(MongoCollection<T> collection, ChunkedInserter<T> inserter,
+                                               Iterator<T> documents) {
+        CompletableFuture<?>[] lanes = new CompletableFuture<?>[Math.max(1, this.options.getWriteParallelism())];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = this.insertChunks(collection, inserter, documents);
+        }
+        return CompletableFuture.allOf(lanes);
+    }
+
+    private <T> CompletableFuture<Void> insertChunks(MongoCollection<T> collection, ChunkedInserter<T> inserter,
+                                                     Iterator<T> documents) {
+        List<T> chunk;
+        synchronized (documents) {
+            chunk = inserter.nextChunk(documents);
+        }
+        if (chunk.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return this.ignoringDuplicates(Publishers.last(
+                collection.insertMany(chunk, new InsertManyOptions().ordered(false))))
+                .thenCompose(v -> this.insertChunks(collection, inserter, documents));
+    }
+
+    /**
+     * Completes normally when the write only failed on duplicate keys and duplicates are ignored.
+     */
+    private CompletableFuture<Void> ignoringDuplicates(CompletableFuture<?> write) {
+        return write.handle((result, error) -> {
+            if (error == null) {
+                return null;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause()
+                    : error;
+            boolean duplicate = cause instanceof MongoWriteException
+                    && ((MongoWriteException) cause).getError().getCategory() == ErrorCategory.DUPLICATE_KEY
+                    || cause instanceof MongoBulkWriteException
+                    && ChunkedInserter.onlyDuplicates((MongoBulkWriteException) cause);
+            if (duplicate && this.options.isIgnoreDuplicates()) {
+                return null;
+            }
+            throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(cause);
+        });
+    }
+
+    /**
+     * Adds a policy rule to the storage.
+     *
+     * @param sec   the section, "p" or "g".
+     * @param ptype the policy type, "p", "p2", .. or "g", "g2", ..
+     * @param rule  the rule, like (sub, obj, act).
+     * @return a future completed once the rule is stored.
+     */
+    public CompletableFuture<Void> addPolicyAsync(String sec, String ptype, List<String> rule) {
+        RawBsonDocument document = MongoAdapter.encodeRule(ptype, 0, rule);
+        if (document == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return this.ignoringDuplicates(this.indexesCreated().thenCompose(
+                v -> Publishers.last(this.rawCollections.get(Operation.ADD).insertOne(document))));
+    }
+
+    /**
+     * Removes a policy rule from the storage.
+     *
+     * @param sec   the section, "p" or "g".
+     * @param ptype the policy type, "p", "p2", .. or "g", "g2", ..
+     * @param rule  the rule, like (sub, obj, act).
+     * @return a future completed once the rule is removed.
+     */
+    public CompletableFuture<Void> removePolicyAsync(String sec, String ptype, List<String> rule) {
+        return this.removing(ptype, 0, rule);
+    }
+
+    /**
+     * Removes every policy rule that matches the specified field index and values from
+     * the storage, in a single deleteMany, see {@link MongoAdapter#deleteFilteredPolicy}.
+     *
+     * @param sec         the section, "p" or "g".
+     * @param ptype       the policy type, "p", "p2", .. or "g", "g2", ..
+     * @param fieldIndex  the policy rule's start index to be matched.
+     * @param fieldValues the field values to be matched, value ""
+     * @return a future completed with the number of rules removed.
+     */
+    public CompletableFuture<Long> removeFilteredPolicyAsync(String sec, String ptype, int fieldIndex, String... fieldValues) {
+        RawBsonDocument filter = fieldValues.length == 0 ? null
+                : MongoAdapter.encodeRule(ptype, fieldIndex, Arrays.asList(fieldValues));
+        if (filter == null) {
+            return CompletableFuture.completedFuture(0L);
+        }
+        return Publishers.last(this.rawCollections.get(Operation.REMOVE).deleteMany(filter))
+                .thenApply(DeleteResult::getDeletedCount);
+    }
+
+    private CompletableFuture<Void> removing(String ptype, int fieldIndex, List<String> fieldValues) {
+        RawBsonDocument filter = fieldValues.isEmpty() ? null : MongoAdapter.encodeRule(ptype, fieldIndex, fieldValues);
+        if (filter == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return Publishers.last(this.rawCollections.get(Operation.REMOVE).deleteOne(filter)).thenApply(result -> null);
+    }
+
+    /**
+     * Adds authorization rules to the current policy.
+     *
+     * @param sec   the section, "p" or "g".
+     * @param ptype the policy type, "p", "p2", .. or "g", "g2", ..
+     * @param rules the rules, like ((sub, obj, act), (sub, obj, act), ...).
+     * @return a future completed once the rules are stored.
+     */
+    public CompletableFuture<Void> addPoliciesAsync(String sec, String ptype, List<List<String>> rules) {
+        List<RawBsonDocument> documents = new ArrayList<>(rules.size());
+        for (List<String> rule : rules) {
+            RawBsonDocument document = MongoAdapter.encodeRule(ptype, 0, rule);
+            if (document != null) {
+                documents.add(document);
+            }
+        }
+        if (documents.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return this.indexesCreated().thenCompose(v -> this.insert(
+                this.rawCollections.get(Operation.BATCH), this.rawInserter, documents.iterator()));
+    }
+
+    /**
+     * Removes authorization rules from the current policy.
+     *
+     * @param sec   the section, "p" or "g".
+     * @param ptype the policy type, "p", "p2", .. or "g", "g2", ..
+     * @param rules the rules, like ((sub, obj, act), (sub, obj, act), ...).
+     * @return a future completed once the rules are removed.
+     */
+    public CompletableFuture<Void> removePoliciesAsync(String sec, String ptype, List<List<String>> rules) {
+        List<DeleteOneModel<RawBsonDocument>> deleteRequests = new ArrayList<>(rules.size());
+        for (List<String> rule : rules) {
+            if (rule.isEmpty()) continue;
+            RawBsonDocument filter = MongoAdapter.encodeRule(ptype, 0, rule);
+            if (filter != null) {
+                deleteRequests.add(new DeleteOneModel<>(filter));
+            }
+        }
+        if (deleteRequests.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return Publishers.last(this.rawCollections.get(Operation.BATCH).bulkWrite(deleteRequests))
+                .thenApply(result -> null);
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public void loadPolicy(Model model) {
+        await(this.loadPolicyAsync(model));
+    }
+
+    @Override
+    public void loadFilteredPolicy(Model model, Object filter) throws CasbinAdapterException {
+        await(this.loadFilteredPolicyAsync(model, filter));
+    }
+
+    @Override
+    public boolean isFiltered() {
+        return this.filtered;
+    }
+
+    @Override
+    public void savePolicy(Model model) {
+        await(this.savePolicyAsync(model));
+    }
+
+    @Override
+    public void addPolicy(String sec, String ptype, List<String> rule) {
+        await(this.addPolicyAsync(sec, ptype, rule));
+    }
+
+    @Override
+    public void removePolicy(String sec, String ptype, List<String> rule) {
+        await(this.removePolicyAsync(sec, ptype, rule));
+    }
+
+    @Override
+    public void removeFilteredPolicy(String sec, String ptype, int fieldIndex, String... fieldValues) {
+        await(this.removeFilteredPolicyAsync(sec, ptype, fieldIndex, fieldValues));
+    }
+
+    @Override
+    public void addPolicies(String sec, String ptype, List<List<String>> rules) {
+        await(this.addPoliciesAsync(sec, ptype, rules));
+    }
+
+    @Override
+    public void removePolicies(String sec, String ptype, List<List<String>> rules) {
+        await(this.removePoliciesAsync(sec, ptype, rules));
+    }
+}
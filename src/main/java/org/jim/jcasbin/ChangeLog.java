@@ -0,0 +1,174 @@
+package org.jim.jcasbin;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.casbin.jcasbin.model.Model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * ChangeLog is a capped collection next to the policy collection that records
+ * every mutation made through the adapter, in order. Replaying the entries
+ * newer than a checkpoint brings a loaded model up to date without reading
+ * the whole policy collection again.
+ */
+class ChangeLog {
+    private static final int NAMESPACE_EXISTS = 48;
+    private static final String OP_ADD = "add";
+    private static final String OP_REMOVE = "remove";
+    private static final String OP_REMOVE_FILTERED = "removeFiltered";
+    private static final String OP_RESET = "reset";
+    private static final String OP_START = "start";
+
+    private final MongoCollection<Document> collection;
+    private final long replayWindowMS;
+
+    ChangeLog(MongoDatabase database, String colName, long sizeInBytes, long replayWindowMS) {
+        this.replayWindowMS = replayWindowMS;
+        try {
+            database.createCollection(colName, new CreateCollectionOptions()
+                    .capped(true)
+                    .sizeInBytes(sizeInBytes));
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() != NAMESPACE_EXISTS) {
+                throw e;
+            }
+        }
+        this.collection = database.getCollection(colName);
+    }
+
+    void recordAdd(String ptype, List<? extends List<String>> rules) {
+        this.collection.insertOne(new Document("op", OP_ADD)
+                .append("ptype", ptype)
+                .append("rules", rules));
+    }
+
+    void recordRemove(String ptype, List<? extends List<String>> rules) {
+        this.collection.insertOne(new Document("op", OP_REMOVE)
+                .append("ptype", ptype)
+                .append("rules", rules));
+    }
+
+    void recordRemoveFiltered(String ptype, int fieldIndex, String... fieldValues) {
+        this.collection.insertOne(new Document("op", OP_REMOVE_FILTERED)
+                .append("ptype", ptype)
+                .append("fieldIndex", fieldIndex)
+                .append("fieldValues", Arrays.asList(fieldValues)));
+    }
+
+    /**
+     * Records that the whole policy has been rewritten, which forces a full reload.
+     */
+    void recordReset() {
+        this.collection.insertOne(new Document("op", OP_RESET));
+    }
+
+    /**
+     * Returns the id of the last entry inserted. An empty log gets a start entry first,
+     * so that a checkpoint always refers to an entry still in the log until it is rolled over.
+     */
+    ObjectId latest() {
+        Document last = this.collection.find()
+                .sort(Sorts.descending("$natural"))
+                .projection(new Document("_id", 1))
+                .first();
+        if (last != null) {
+            return last.getObjectId("_id");
+        }
+        Document start = new Document("op", OP_START);
+        this.collection.insertOne(start);
+        return start.getObjectId("_id");
+    }
+
+    /**
+     * Applies the entries inserted after the checkpoint to the model.
+     * <p>
+     * The log is read in insertion order, which a capped collection guarantees: ObjectIds
+     * of different writers within the same second do not sort in the order the entries
+     * were inserted. Entries inserted slightly before the checkpoint are replayed as well,
+     * so that entries stamped by writers with a lagging clock are not missed. Replaying is
+     * harmless because adds and removes are idempotent and applied in order, as long
+     * as it starts after the last reset: the entries before a reset describe a policy
+     * that the loaded model no longer holds.
+     *
+     * @return the new checkpoint, or null if the model has to be fully reloaded
+     * because the policy was rewritten or the log no longer covers the checkpoint.
+     */
+    ObjectId replay(Model model, ObjectId checkpoint) {
+        ObjectId from = new ObjectId(new Date(checkpoint.getDate().getTime() - this.replayWindowMS));
+        // Entries inserted up to the checkpoint, applied once the checkpoint is found.
+        List<Document> window = new ArrayList<>();
+        boolean pastCheckpoint = false;
+        ObjectId latest = checkpoint;
+        try (MongoCursor<Document> cursor = this.collection.find(Filters.gt("_id", from))
+                .sort(Sorts.ascending("$natural"))
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document entry = cursor.next();
+                ObjectId id = entry.getObjectId("_id");
+                if (OP_RESET.equals(entry.getString("op"))) {
+                    if (pastCheckpoint) {
+                        return null;
+                    }
+                    window.clear();
+                } else if (pastCheckpoint) {
+                    apply(model, entry);
+                } else {
+                    window.add(entry);
+                }
+                if (id.equals(checkpoint)) {
+                    pastCheckpoint = true;
+                    for (Document earlier : window) {
+                        apply(model, earlier);
+                    }
+                    window.clear();
+                }
+                latest = id;
+            }
+        }
+        // The checkpoint has been rolled out of the log.
+        return pastCheckpoint ? latest : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void apply(Model model, Document entry) {
+        String ptype = entry.getString("ptype");
+        if (ptype == null || ptype.isEmpty()) {
+            return;
+        }
+        String sec = ptype.substring(0, 1);
+        if (!model.model.containsKey(sec) || !model.model.get(sec).containsKey(ptype)) {
+            return;
+        }
+        switch (entry.getString("op")) {
+            case OP_ADD:
+                for (List<String> rule : (List<List<String>>) entry.get("rules")) {
+                    if (!model.hasPolicy(sec, ptype, rule)) {
+                        model.addPolicy(sec, ptype, rule);
+                    }
+                }
+                break;
+            case OP_REMOVE:
+                for (List<String> rule : (List<List<String>>) entry.get("rules")) {
+                    model.removePolicy(sec, ptype, rule);
+                }
+                break;
+            case OP_REMOVE_FILTERED:
+                List<String> fieldValues = entry.getList("fieldValues", String.class);
+                model.removeFilteredPolicy(sec, ptype, entry.getInteger("fieldIndex"),
+                        fieldValues.toArray(new String[0]));
+                break;
+            default:
+        }
+    }
+}
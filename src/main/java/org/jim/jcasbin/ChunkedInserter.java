@@ -0,0 +1,248 @@
+package org.jim.jcasbin;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.casbin.jcasbin.exception.CasbinAdapterException;
+import org.jim.jcasbin.domain.CasbinRule;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * ChunkedInserter splits large inserts into unordered {@code insertMany} chunks,
+ * bounded by a number of documents and an estimated number of bytes.
+ * <p>
+ * With a parallelism above one, chunks are written concurrently over several pooled
+ * connections, at most {@code parallelism} at a time so the source is never buffered
+ * ahead. A failing chunk does not stop the others; the first failure is rethrown once
+ * every chunk has completed, with the later ones attached as suppressed exceptions.
+ * <p>
+ * Outside a session each chunk is retried on transient errors. Documents stored by an
+ * earlier attempt of the chunk come back as duplicate _ids, which the retry accepts.
+ * <p>
+ * When duplicates are ignored, rules rejected by the unique policy index are skipped
+ * silently. Within a session the rules are upserted instead, since a duplicate key
+ * error would abort the whole transaction.
+ * <p>
+ * The inserter works on {@link CasbinRule}s for saves and on pre-encoded
+ * {@link org.bson.RawBsonDocument}s for incremental writes; the document type brings
+ * its own size estimate and upsert.
+ *
+ * @param <T> the document type.
+ */
+class ChunkedInserter<T> {
+    private static final int DOCUMENT_OVERHEAD = 64;
+    private static final int FIELD_OVERHEAD = 8;
+
+    private final int batchSize;
+    private final long batchBytes;
+    private final int parallelism;
+    private final boolean ignoreDuplicates;
+    private final ToLongFunction<T> sizeOf;
+    private final Function<T, WriteModel<T>> upsert;
+    private final RetryPolicy retryPolicy;
+
+    ChunkedInserter(int batchSize, long batchBytes, int parallelism, boolean ignoreDuplicates,
+                    ToLongFunction<T> sizeOf, Function<T, WriteModel<T>> upsert, RetryPolicy retryPolicy) {
+        this.batchSize = batchSize > 0 ? batchSize : Integer.MAX_VALUE;
+        this.batchBytes = batchBytes > 0 ? batchBytes : Long.MAX_VALUE;
+        this.parallelism = Math.max(1, parallelism);
+        this.ignoreDuplicates = ignoreDuplicates;
+        this.sizeOf = sizeOf;
+        this.upsert = upsert;
+        this.retryPolicy = retryPolicy == null ? RetryPolicy.NONE : retryPolicy;
+    }
+
+    static ChunkedInserter<CasbinRule> forRules(int batchSize, long batchBytes, int parallelism,
+                                                boolean ignoreDuplicates, RetryPolicy retryPolicy) {
+        return new ChunkedInserter<>(batchSize, batchBytes, parallelism, ignoreDuplicates,
+                ChunkedInserter::estimateSize, ChunkedInserter::upsert, retryPolicy);
+    }
+
+    void insert(MongoCollection<T> collection, Iterator<T> documents) {
+        insert(collection, null, documents);
+    }
+
+    /**
+     * Inserts the rules within the session. A session cannot be shared between threads,
+     * so its chunks are written one after another and the first failure aborts the insert.
+     */
+    void insert(MongoCollection<T> collection, ClientSession session, Iterator<T> documents) {
+        if (session != null) {
+            while (documents.hasNext()) {
+                List<T> chunk = this.nextChunk(documents);
+                if (this.ignoreDuplicates) {
+                    collection.bulkWrite(session, this.upserts(chunk), new BulkWriteOptions().ordered(false));
+                } else {
+                    collection.insertMany(session, chunk, new InsertManyOptions().ordered(false));
+                }
+            }
+            return;
+        }
+        Failures failures = new Failures();
+        ExecutorService executor = this.parallelism > 1 ? Executors.newFixedThreadPool(this.parallelism) : null;
+        Semaphore inFlight = new Semaphore(this.parallelism);
+        try {
+            while (documents.hasNext()) {
+                List<T> chunk = this.nextChunk(documents);
+                if (executor == null) {
+                    this.insertChunk(collection, chunk, failures);
+                    continue;
+                }
+                inFlight.acquire();
+                executor.execute(() -> {
+                    try {
+                        this.insertChunk(collection, chunk, failures);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            if (executor != null) {
+                executor.shutdown();
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CasbinAdapterException("interrupted while inserting policy", e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        failures.rethrow();
+    }
+
+    /**
+     * Takes the next chunk off the iterator, bounded by the batch size and bytes.
+     */
+    List<T> nextChunk(Iterator<T> documents) {
+        List<T> chunk = new ArrayList<>(Math.min(this.batchSize, 1024));
+        long bytes = 0;
+        while (documents.hasNext() && chunk.size() < this.batchSize && bytes < this.batchBytes) {
+            T document = documents.next();
+            chunk.add(document);
+            bytes += this.sizeOf.applyAsLong(document);
+        }
+        return chunk;
+    }
+
+    private void insertChunk(MongoCollection<T> collection, List<T> chunk, Failures failures) {
+        try {
+            // The driver assigns the _ids of the chunk on the first attempt and keeps them.
+            this.retryPolicy.run(attempt -> {
+                try {
+                    collection.insertMany(chunk, new InsertManyOptions().ordered(false));
+                } catch (MongoBulkWriteException e) {
+                    if (attempt == 1 || !onlyIdDuplicates(e)) {
+                        throw e;
+                    }
+                }
+            });
+        } catch (MongoBulkWriteException e) {
+            if (!this.ignoreDuplicates || !onlyDuplicates(e)) {
+                failures.add(e);
+            }
+        } catch (RuntimeException e) {
+            failures.add(e);
+        }
+    }
+
+    /**
+     * Returns true if every error is a duplicate _id, the trace of an earlier attempt.
+     */
+    static boolean onlyIdDuplicates(MongoBulkWriteException e) {
+        if (!onlyDuplicates(e)) {
+            return false;
+        }
+        for (BulkWriteError error : e.getWriteErrors()) {
+            if (!isIdDuplicate(error.getMessage())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isIdDuplicate(String message) {
+        return message != null && message.contains(" index: _id_ ");
+    }
+
+    static boolean onlyDuplicates(MongoBulkWriteException e) {
+        if (e.getWriteConcernError() != null) {
+            return false;
+        }
+        for (BulkWriteError error : e.getWriteErrors()) {
+            if (error.getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<WriteModel<T>> upserts(List<T> chunk) {
+        List<WriteModel<T>> upserts = new ArrayList<>(chunk.size());
+        for (T document : chunk) {
+            upserts.add(this.upsert.apply(document));
+        }
+        return upserts;
+    }
+
+    /**
+     * Returns a write storing the rule unless an identical one is stored already,
+     * with or without "" padding, see {@link RuleDocuments#upsert}.
+     */
+    static WriteModel<CasbinRule> upsert(CasbinRule casbinRule) {
+        Document filter = new Document();
+        filter.put("ptype", casbinRule.getPtype());
+        for (int i = 1; i <= 6; i++) {
+            String value = casbinRule.getByIndex(i);
+            filter.put("v" + (i - 1), CasbinRule.hasText(value) ? value : RuleDocuments.ABSENT);
+        }
+        return new ReplaceOneModel<>(filter, casbinRule, new ReplaceOptions().upsert(true));
+    }
+
+    static long estimateSize(CasbinRule casbinRule) {
+        long size = DOCUMENT_OVERHEAD;
+        for (int i = 0; i <= 6; i++) {
+            String value = casbinRule.getByIndex(i);
+            if (value != null) {
+                size += FIELD_OVERHEAD + value.length();
+            }
+        }
+        return size;
+    }
+
+    private static class Failures {
+        private RuntimeException first;
+
+        synchronized void add(RuntimeException e) {
+            if (first == null) {
+                first = e;
+            } else {
+                first.addSuppressed(e);
+            }
+        }
+
+        synchronized void rethrow() {
+            if (first != null) {
+                throw first;
+            }
+        }
+    }
+}
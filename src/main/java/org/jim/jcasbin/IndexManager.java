@@ -0,0 +1,105 @@
+package org.jim.jcasbin;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * IndexManager owns the indexes of the policy collection: the compound index on
+ * {@code ptype, v0..v5} used by loads, filtered loads and removals, optionally unique,
+ * the index on {@code ptype, v1} used by removals filtered from the second field,
+ * plus any extra indexes configured in {@link MongoAdapterOptions}.
+ * <p>
+ * The indexes are ensured when the adapter is constructed and again on every
+ * collection a save creates, so they survive a {@code savePolicy}. Indexes are an
+ * optimisation, so a user without the createIndex privilege, or an index with the
+ * same keys under another name or options, only logs a warning, unless a unique
+ * policy index was asked for.
+ */
+class IndexManager {
+    static final Bson POLICY_INDEX = Indexes.ascending("ptype", "v0", "v1", "v2", "v3", "v4", "v5");
+    static final String POLICY_INDEX_NAME = "ptype_1_v0_1_v1_1_v2_1_v3_1_v4_1_v5_1";
+    static final Bson ROLE_INDEX = Indexes.ascending("ptype", "v1");
+    static final String ROLE_INDEX_NAME = "ptype_1_v1_1";
+    private static final Logger log = LoggerFactory.getLogger(IndexManager.class);
+    private static final int UNAUTHORIZED = 13;
+    private static final int INDEX_OPTIONS_CONFLICT = 85;
+    private static final int INDEX_KEY_SPECS_CONFLICT = 86;
+
+    private final List<IndexModel> indexes;
+    private final boolean unique;
+
+    IndexManager(MongoAdapterOptions options) {
+        List<IndexModel> indexes = new ArrayList<>();
+        boolean unique = options.isUniquePolicyIndex() || options.isIgnoreDuplicates();
+        if (options.isPolicyIndex() || options.isCoveringIndex() || unique) {
+            indexes.add(new IndexModel(POLICY_INDEX, new IndexOptions()
+                    .name(POLICY_INDEX_NAME)
+                    .unique(unique)));
+        }
+        if (options.isRoleIndex()) {
+            indexes.add(new IndexModel(ROLE_INDEX, new IndexOptions().name(ROLE_INDEX_NAME)));
+        }
+        if (options.getExtraIndexes() != null) {
+            indexes.addAll(options.getExtraIndexes());
+        }
+        this.indexes = Collections.unmodifiableList(indexes);
+        this.unique = unique;
+    }
+
+    List<IndexModel> getIndexes() {
+        return this.indexes;
+    }
+
+    /**
+     * Returns true if an index of that name is created by this manager.
+     */
+    boolean isManaged(String name) {
+        for (IndexModel index : this.indexes) {
+            if (name.equals(index.getOptions().getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the managed indexes on the collection. Existing identical indexes are left as they are.
+     */
+    void ensureIndexes(MongoCollection<?> collection) {
+        if (this.indexes.isEmpty()) {
+            return;
+        }
+        try {
+            collection.createIndexes(this.indexes);
+        } catch (MongoCommandException e) {
+            if (!this.isTolerable(e)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns true, after logging it, if the failure to create the indexes can be ignored.
+     */
+    boolean isTolerable(Throwable error) {
+        if (this.unique || !(error instanceof MongoCommandException)) {
+            return false;
+        }
+        int code = ((MongoCommandException) error).getErrorCode();
+        if (code != UNAUTHORIZED && code != INDEX_OPTIONS_CONFLICT && code != INDEX_KEY_SPECS_CONFLICT) {
+            return false;
+        }
+        log.warn("policy indexes not created: {}", error.getMessage());
+        return true;
+    }
+}
@@ -1,28 +1,69 @@
 package org.jim.jcasbin;
 
+import com.mongodb.ErrorCategory;
 import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoNamespace;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ReadConcern;
+import com.mongodb.TransactionOptions;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.ClientSession;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
 import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.RenameCollectionOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.WriteModel;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.codecs.configuration.CodecRegistry;
-import org.bson.codecs.pojo.PojoCodecProvider;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.casbin.jcasbin.exception.CasbinAdapterException;
 import org.casbin.jcasbin.model.Assertion;
 import org.casbin.jcasbin.model.Model;
 import org.casbin.jcasbin.persist.BatchAdapter;
+import org.casbin.jcasbin.persist.FilteredAdapter;
+import org.jim.jcasbin.MongoAdapterOptions.Operation;
+import org.jim.jcasbin.codec.CasbinRuleCodec;
+import org.jim.jcasbin.codec.StringInterner;
 import org.jim.jcasbin.domain.CasbinRule;
+import org.jim.jcasbin.domain.PolicyDigest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
-import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
 import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 
 /**
@@ -34,32 +75,64 @@ import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
  * Description:
  */
 
-public class MongoAdapter implements BatchAdapter {
-    private static final String DEFAULT_DB_NAME = "casbin";
-    private static final String DEFAULT_COL_NAME = "casbin_rule";
+public class MongoAdapter implements BatchAdapter, FilteredAdapter, AutoCloseable {
+    static final String DEFAULT_DB_NAME = "casbin";
+    static final String DEFAULT_COL_NAME = "casbin_rule";
+    private static final String CHANGE_LOG_SUFFIX = "_changes";
+    private static final String METADATA_SUFFIX = "_meta";
+    private static final String SHADOW_SUFFIX = "_shadow_";
     private static final Logger log = LoggerFactory.getLogger(MongoAdapter.class);
-    private static final CodecRegistry POJO_CODEC_REGISTRY = fromRegistries(MongoClientSettings.getDefaultCodecRegistry(),
-            fromProviders(PojoCodecProvider.builder().automatic(true).build()));
+    static final CodecRegistry CODEC_REGISTRY = fromRegistries(fromCodecs(new CasbinRuleCodec()),
+            MongoClientSettings.getDefaultCodecRegistry());
+    static final Bson POLICY_PROJECTION = Projections.fields(
+            Projections.include("ptype", "v0", "v1", "v2", "v3", "v4", "v5"),
+            Projections.excludeId());
+    private static final Bson RESUMABLE_PROJECTION =
+            Projections.include("ptype", "v0", "v1", "v2", "v3", "v4", "v5");
+    private static final Document POLICY_GROUP_KEY = new Document("ptype", "$ptype")
+            .append("v0", "$v0").append("v1", "$v1").append("v2", "$v2")
+            .append("v3", "$v3").append("v4", "$v4").append("v5", "$v5");
 
-    private static String orDefault(String str, String defaultStr) {
+    static String orDefault(String str, String defaultStr) {
         return str == null || str.trim().isEmpty() ? defaultStr : str;
     }
 
-    private static Optional<CasbinRule> fromListRule(List<String> rules) {
-        if (rules.size() != 7) {
-            log.warn("list rules size [{}] do not match pojo fields", rules.size());
-            return Optional.empty();
-        }
-        CasbinRule casbinRule = new CasbinRule();
-        for (int i = 0; i < rules.size(); i++) {
-            casbinRule.setByIndex(i, rules.get(i));
+    /**
+     * Encodes the rule, or the filter matching it, straight to BSON.
+     *
+     * @return the document, or null with a warning when the values do not fit in v0..v5.
+     */
+    static RawBsonDocument encodeRule(String ptype, int fieldIndex, List<String> values) {
+        return encodeRule(null, ptype, fieldIndex, values);
+    }
+
+    static RawBsonDocument encodeRule(ObjectId id, String ptype, int fieldIndex, List<String> values) {
+        RawBsonDocument document = RuleDocuments.encode(id, ptype, fieldIndex, values);
+        if (document == null) {
+            log.warn("list rules size [{}] do not match pojo fields", fieldIndex + values.size() + 1);
         }
-        return Optional.of(casbinRule);
+        return document;
     }
 
     private final MongoClient mongoClient;
     private final String dbName;
     private final String colName;
+    private final MongoAdapterOptions options;
+    private final ChangeLog changeLog;
+    private final PolicyMetadata metadata;
+    private final PolicySnapshot snapshot;
+    private final ChunkedInserter<CasbinRule> inserter;
+    private final ChunkedInserter<RawBsonDocument> rawInserter;
+    private final IndexManager indexManager;
+    private final WriteBehindBuffer writeBehind;
+    private final RetryPolicy retryPolicy;
+    private final MongoCollection<CasbinRule> collection;
+    private final Map<Operation, MongoCollection<CasbinRule>> collections;
+    private final MongoCollection<RawBsonDocument> rawCollection;
+    private final Map<Operation, MongoCollection<RawBsonDocument>> rawCollections;
+    private volatile boolean filtered;
+    private volatile ObjectId checkpoint;
+    private volatile Boolean transactionsSupported;
 
 
     public MongoAdapter(MongoClient mongoClient, String dbName) {
@@ -67,73 +140,679 @@ public class MongoAdapter implements BatchAdapter {
     }
 
     public MongoAdapter(MongoClient mongoClient, String dbName, String colName) {
+        this(mongoClient, dbName, colName, null);
+    }
+
+    public MongoAdapter(MongoClient mongoClient, String dbName, String colName, MongoAdapterOptions options) {
         this.mongoClient = mongoClient;
 
         this.dbName = orDefault(dbName, DEFAULT_DB_NAME);
         this.colName = orDefault(colName, DEFAULT_COL_NAME);
+        this.options = options == null ? MongoAdapterOptions.defaults() : options;
+
+        // Collection handles are immutable, so each profile is configured once and shared.
+        this.collection = this.mongoClient
+                .getDatabase(this.dbName)
+                .withCodecRegistry(CODEC_REGISTRY)
+                .getCollection(this.colName, CasbinRule.class);
+        this.collections = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            this.collections.put(operation, this.withConcerns(this.collection, operation));
+        }
+        if (this.options.getReadPreference() != null) {
+            this.collections.put(Operation.LOAD,
+                    this.collections.get(Operation.LOAD).withReadPreference(this.options.getReadPreference()));
+        }
+        // Incremental writes send rules encoded by RuleDocuments.
+        this.rawCollection = this.collection.withDocumentClass(RawBsonDocument.class);
+        this.rawCollections = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            this.rawCollections.put(operation, this.withConcerns(this.rawCollection, operation));
+        }
+
+        this.retryPolicy = this.options.getRetryPolicy() == null ? RetryPolicy.NONE : this.options.getRetryPolicy();
+        this.indexManager = new IndexManager(this.options);
+        this.indexManager.ensureIndexes(this.collection);
+        this.changeLog = this.options.isChangeLog()
+                ? new ChangeLog(this.mongoClient.getDatabase(this.dbName), this.colName + CHANGE_LOG_SUFFIX,
+                this.options.getChangeLogSizeInBytes(), this.options.getChangeLogReplayWindowMS())
+                : null;
+        this.metadata = this.options.isVersioned() || this.options.getSnapshotPath() != null
+                || this.options.isSkipUnchangedSave()
+                ? new PolicyMetadata(this.mongoClient.getDatabase(this.dbName), this.colName + METADATA_SUFFIX)
+                : null;
+        this.snapshot = this.options.getSnapshotPath() != null
+                ? new PolicySnapshot(this.options.getSnapshotPath())
+                : null;
+        this.inserter = ChunkedInserter.forRules(this.options.getInsertBatchSize(),
+                this.options.getInsertBatchBytes(), this.options.getWriteParallelism(),
+                this.options.isIgnoreDuplicates(), this.retryPolicy);
+        this.rawInserter = new ChunkedInserter<>(this.options.getInsertBatchSize(),
+                this.options.getInsertBatchBytes(), this.options.getWriteParallelism(),
+                this.options.isIgnoreDuplicates(), RuleDocuments::size, RuleDocuments::upsert, this.retryPolicy);
+        this.writeBehind = this.options.isWriteBehind()
+                ? new WriteBehindBuffer(this.rawCollections.get(Operation.BATCH), this.options.getWriteBehindBatchSize(),
+                this.options.getWriteBehindLingerMS(), this.options.getWriteBehindListener(), this.retryPolicy,
+                this::lostTrack)
+                : null;
+    }
+
+    public MongoAdapterOptions getOptions() {
+        return this.options;
     }
 
     protected void clearCollection() {
-        this.mongoClient.getDatabase(this.dbName).getCollection(this.colName).drop();
+        this.collection.drop();
     }
 
-    private MongoCollection<CasbinRule> getCollection() {
-        return this.mongoClient
-                .getDatabase(this.dbName)
-                .withCodecRegistry(POJO_CODEC_REGISTRY)
-                .getCollection(this.colName, CasbinRule.class);
+    /**
+     * Returns the collection with the concerns configured for the operation. Within a
+     * session the plain collection is returned, since the transaction carries the concerns.
+     */
+    private MongoCollection<CasbinRule> getCollection(Operation operation, ClientSession session) {
+        return session == null ? this.collections.get(operation) : this.collection;
+    }
+
+    private MongoCollection<CasbinRule> getCollection(Operation operation) {
+        return this.getCollection(operation, null);
+    }
+
+    private MongoCollection<RawBsonDocument> getRawCollection(Operation operation, ClientSession session) {
+        return session == null ? this.rawCollections.get(operation) : this.rawCollection;
+    }
+
+    private <T> MongoCollection<T> withConcerns(MongoCollection<T> collection, Operation operation) {
+        WriteConcern writeConcern = this.options.getWriteConcerns().get(operation);
+        if (writeConcern != null) {
+            collection = collection.withWriteConcern(writeConcern);
+        }
+        ReadConcern readConcern = this.getReadConcern(operation);
+        if (readConcern != null) {
+            collection = collection.withReadConcern(readConcern);
+        }
+        return collection;
+    }
+
+    private ReadConcern getReadConcern(Operation operation) {
+        ReadConcern readConcern = this.options.getReadConcerns().get(operation);
+        return readConcern == null && operation == Operation.LOAD ? this.options.getReadConcern() : readConcern;
+    }
+
+    /**
+     * Returns the collection with the read preference and read concern configured for loads.
+     * With string interning enabled, every call gets a fresh dictionary scoped to that load.
+     */
+    private MongoCollection<CasbinRule> getLoadCollection() {
+        MongoCollection<CasbinRule> collection = this.getCollection(Operation.LOAD);
+        return this.options.getInternStrings() > 0
+                ? collection.withCodecRegistry(loadCodecRegistry(this.options))
+                : collection;
+    }
+
+    /**
+     * Returns a codec registry whose {@link CasbinRuleCodec} interns the decoded values
+     * in a dictionary of its own, or the shared registry when interning is off.
+     */
+    static CodecRegistry loadCodecRegistry(MongoAdapterOptions options) {
+        if (options.getInternStrings() <= 0) {
+            return CODEC_REGISTRY;
+        }
+        StringInterner interner = options.isInternWeak()
+                ? StringInterner.weak(options.getInternStrings())
+                : StringInterner.bounded(options.getInternStrings());
+        return fromRegistries(fromCodecs(new CasbinRuleCodec(interner)),
+                MongoClientSettings.getDefaultCodecRegistry());
     }
 
     /**
      * Loads all policy rules from the storage.
-     * Duplicates are merged during loading.
+     * Duplicates are merged during loading, on the client or on the server
+     * depending on {@link MongoAdapterOptions#getDeduplication()}.
+     * <p>
+     * Rules are decoded one by one off the cursor and appended straight into
+     * the matching {@link Assertion}, so the policy is never held twice in memory.
+     * <p>
+     * With a snapshot configured, the policy is read from the local snapshot instead
+     * when its version still matches the one in MongoDB, and the snapshot is rewritten
+     * after every load from MongoDB.
      *
      * @param model the model.
      */
     @Override
     public void loadPolicy(Model model) {
-        Map<String, ArrayList<ArrayList<String>>> policies = this.loading();
-        policies.keySet()
-                .forEach(k -> {
-                    Assertion assertion = model.model.get(k.substring(0, 1)).get(k);
-                    for (ArrayList<String> policy : policies.get(k)) {
-                        assertion.policy.add(policy);
-                        assertion.policyIndex.put(policy.toString(), assertion.policy.size() - 1);
+        this.awaitWrites();
+        // Taken before reading, so changes made during the load are caught by the next load.
+        ObjectId latest = this.changeLog == null ? null : this.changeLog.latest();
+        if (this.snapshot == null) {
+            this.loading(model);
+        } else {
+            long version = this.metadata.version();
+            if (!this.snapshot.load(model, version)) {
+                this.loading(model);
+                this.snapshot.save(model, version);
+            }
+        }
+        this.filtered = false;
+        this.checkpoint = latest;
+    }
+
+    /**
+     * Brings a model loaded by {@link #loadPolicy(Model)} up to date by applying only
+     * the rules added or removed since the previous load. Falls back to a full reload
+     * when there is no checkpoint yet, the policy has been saved as a whole since,
+     * or the change log has been rolled over.
+     * <p>
+     * Requires {@link MongoAdapterOptions#isChangeLog()} on every adapter writing the policy.
+     * Role links are not touched; call {@code enforcer.buildRoleLinks()} afterwards.
+     *
+     * @param model the model.
+     * @return true if only the changes were applied, false if the model was fully reloaded.
+     */
+    public boolean loadIncrementalPolicy(Model model) {
+        if (this.changeLog == null) {
+            throw new IllegalStateException("incremental loading requires the change log to be enabled");
+        }
+        this.awaitWrites();
+        ObjectId latest = this.checkpoint == null || this.filtered
+                ? null
+                : this.changeLog.replay(model, this.checkpoint);
+        if (latest == null) {
+            model.clearPolicy();
+            this.loadPolicy(model);
+            return false;
+        }
+        this.checkpoint = latest;
+        return true;
+    }
+
+    /**
+     * Loads only policy rules that match the filter.
+     * The filter is translated into a single indexed query on ptype and v0..v5.
+     *
+     * @param model  the model.
+     * @param filter a {@link PolicyFilter}, a jCasbin {@link org.casbin.jcasbin.persist.file_adapter.FilteredAdapter.Filter},
+     *               or null to load all policy rules.
+     * @throws CasbinAdapterException if the filter type is not supported.
+     */
+    @Override
+    public void loadFilteredPolicy(Model model, Object filter) throws CasbinAdapterException {
+        if (filter == null) {
+            this.loadPolicy(model);
+            return;
+        }
+        PolicyFilter policyFilter = PolicyFilter.of(filter);
+        this.awaitWrites();
+        this.loading(model, this.getLoadCollection(), policyFilter.toBson());
+        this.filtered = true;
+    }
+
+    /**
+     * Returns true if the loaded policy has been filtered.
+     *
+     * @return true if the loaded policy has been filtered.
+     */
+    @Override
+    public boolean isFiltered() {
+        return this.filtered;
+    }
+
+    void loading(Model model) {
+        MongoCollection<CasbinRule> collection = this.getLoadCollection();
+        if (this.options.getLoadParallelism() > 1) {
+            this.parallelLoading(model, collection);
+        } else {
+            this.loading(model, collection, new Document(), true);
+        }
+    }
+
+    private void loading(Model model, MongoCollection<CasbinRule> collection, Bson filter) {
+        this.loading(model, collection, filter, false);
+    }
+
+    /**
+     * Streams the rules matching the filter into the model. With retries enabled, a load
+     * interrupted by a transient error starts again and merges into what it already read.
+     * A resumable load, the full load on a single cursor, reads in _id order instead and
+     * resumes after the last _id it read; filtered loads and the partitions of a parallel
+     * load keep the policy index order, which an _id sort would give up.
+     */
+    private void loading(Model model, MongoCollection<CasbinRule> collection, Bson filter, boolean resumable) {
+        boolean merge = this.options.getDeduplication() == MongoAdapterOptions.Deduplication.CLIENT;
+        ObjectId[] lastId = new ObjectId[1];
+        this.retryPolicy.run(attempt -> {
+            Bson resumeFilter = lastId[0] == null ? filter : Filters.and(filter, Filters.gt("_id", lastId[0]));
+            try (MongoCursor<CasbinRule> cursor = this.find(collection, resumeFilter, resumable).iterator()) {
+                while (cursor.hasNext()) {
+                    CasbinRule casbinRule = cursor.next();
+                    loadPolicyLine(casbinRule, model, merge || attempt > 1);
+                    if (casbinRule.getId() != null) {
+                        lastId[0] = casbinRule.getId();
                     }
+                }
+            }
         });
     }
 
-    Map<String, ArrayList<ArrayList<String>>> loading() {
-        FindIterable<CasbinRule> findAll = this.getCollection()
-                .find();
-        return StreamSupport.stream(findAll.spliterator(), false)
-                .distinct()
-                .map(CasbinRule::toPolicy)
-                .collect(Collectors.toMap(
-                        x -> x.get(0), y -> {
-                            ArrayList<ArrayList<String>> lists = new ArrayList<>();
-                            // Remove the first item (policy type) from the list
-                            y.remove(0);
-                            lists.add(y);
-                            return lists;
-                        }, (oldValue, newValue) -> {
-                            oldValue.addAll(newValue);
-                            return oldValue;
-                        })
-                );
+    /**
+     * Loads the rules of each policy type on its own cursor and thread.
+     * Every policy type feeds a distinct {@link Assertion}, so the partitions
+     * never write to shared state and the result does not depend on scheduling.
+     */
+    private void parallelLoading(Model model, MongoCollection<CasbinRule> collection) {
+        List<String> ptypes = new ArrayList<>();
+        this.retryPolicy.run(attempt -> {
+            ptypes.clear();
+            collection.distinct("ptype", String.class)
+                    .maxTime(this.options.getMaxTimeMS(), TimeUnit.MILLISECONDS)
+                    .into(ptypes);
+        });
+        if (ptypes.size() <= 1) {
+            this.loading(model, collection, new Document(), true);
+            return;
+        }
+        Collections.sort(ptypes);
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(this.options.getLoadParallelism(), ptypes.size()));
+        try {
+            List<Future<?>> partitions = new ArrayList<>(ptypes.size());
+            for (String ptype : ptypes) {
+                partitions.add(executor.submit(() -> this.loading(model, collection, Filters.eq("ptype", ptype))));
+            }
+            for (Future<?> partition : partitions) {
+                partition.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CasbinAdapterException("interrupted while loading policy", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CasbinAdapterException("failed to load policy", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Finds the rules matching the filter, transferring only ptype and v0..v5.
+     * The _id is only read back by a resumable load with retries enabled.
+     * With server-side deduplication the rules are grouped by MongoDB instead.
+     */
+    private MongoIterable<CasbinRule> find(MongoCollection<CasbinRule> collection, Bson filter, boolean resumable) {
+        if (this.options.getDeduplication() == MongoAdapterOptions.Deduplication.SERVER) {
+            AggregateIterable<CasbinRule> distinctRules = collection
+                    .aggregate(distinctPipeline(filter))
+                    .allowDiskUse(true)
+                    .maxTime(this.options.getMaxTimeMS(), TimeUnit.MILLISECONDS);
+            if (this.options.getBatchSize() > 0) {
+                distinctRules.batchSize(this.options.getBatchSize());
+            }
+            if (this.options.isCoveringIndex()) {
+                distinctRules.hint(IndexManager.POLICY_INDEX);
+            }
+            return distinctRules;
+        }
+        if (resumable && this.options.getRetryPolicy() != null) {
+            // Read in _id order and keep the _id.
+            FindIterable<CasbinRule> findAll = collection
+                    .find(filter)
+                    .projection(RESUMABLE_PROJECTION)
+                    .sort(Sorts.ascending("_id"))
+                    .maxTime(this.options.getMaxTimeMS(), TimeUnit.MILLISECONDS)
+                    .noCursorTimeout(this.options.isNoCursorTimeout());
+            if (this.options.getBatchSize() > 0) {
+                findAll.batchSize(this.options.getBatchSize());
+            }
+            return findAll;
+        }
+        FindIterable<CasbinRule> findAll = collection
+                .find(filter)
+                .projection(POLICY_PROJECTION)
+                .maxTime(this.options.getMaxTimeMS(), TimeUnit.MILLISECONDS)
+                .noCursorTimeout(this.options.isNoCursorTimeout());
+        if (this.options.getBatchSize() > 0) {
+            findAll.batchSize(this.options.getBatchSize());
+        }
+        if (this.options.isCoveringIndex()) {
+            findAll.hint(IndexManager.POLICY_INDEX);
+        }
+        return findAll;
+    }
+
+    /**
+     * The aggregation grouping the rules matching the filter on ptype and v0..v5.
+     */
+    static List<Bson> distinctPipeline(Bson filter) {
+        return Arrays.asList(
+                Aggregates.match(filter),
+                Aggregates.group(POLICY_GROUP_KEY),
+                Aggregates.replaceRoot("$_id"));
+    }
+
+    /**
+     * Appends a single rule to its assertion, keeping policyIndex in step.
+     * When merging, rules already present in the assertion are skipped.
+     */
+    static void loadPolicyLine(CasbinRule casbinRule, Model model, boolean merge) {
+        String ptype = casbinRule.getPtype();
+        if (!CasbinRule.hasText(ptype)) {
+            return;
+        }
+        loadPolicyLine(ptype, casbinRule.toRule(), model, merge);
+    }
+
+    static void loadPolicyLine(String ptype, List<String> policy, Model model, boolean merge) {
+        Map<String, Assertion> section = model.model.get(ptype.substring(0, 1));
+        Assertion assertion = section == null ? null : section.get(ptype);
+        if (assertion == null) {
+            log.warn("policy type [{}] is not defined in the model", ptype);
+            return;
+        }
+        String key = policy.toString();
+        if (merge && assertion.policyIndex.containsKey(key)) {
+            return;
+        }
+        assertion.policy.add(policy);
+        assertion.policyIndex.put(key, assertion.policy.size() - 1);
     }
 
     /**
      * Saves all policy rules to the storage.
      * Duplicates are merged during saving.
+     * <p>
+     * Rules are converted lazily and streamed into the insert chunks, so a full
+     * save never holds the whole policy as {@link CasbinRule} objects.
+     * <p>
+     * With {@link MongoAdapterOptions.SaveMode#SHADOW} the rules are written to a
+     * shadow collection which then replaces the policy collection in one rename,
+     * so readers never see an empty or partial policy. With
+     * {@link MongoAdapterOptions.SaveMode#DIFF} only the rules that differ from
+     * the stored ones are inserted or deleted.
+     * <p>
+     * With {@link MongoAdapterOptions#isSkipUnchangedSave()} the digest has to be known
+     * before anything is written, so the rules are converted, and digested, in a single
+     * pass up front and the save writes those instead of converting the model again.
      *
      * @param model the model.
      */
     @Override
     public void savePolicy(Model model) {
-        this.clearCollection();
-        List<CasbinRule> casbinRules = CasbinRule.transformToCasbinRule(model);
-        this.getCollection().insertMany(casbinRules);
+        this.awaitWrites();
+        PolicyDigest policyDigest = this.options.isSkipUnchangedSave() ? new PolicyDigest() : null;
+        List<CasbinRule> convertedRules = policyDigest != null
+                ? CasbinRule.transformToCasbinRule(model, policyDigest)
+                : null;
+        String digest = policyDigest != null ? policyDigest.toString() : null;
+        if (digest != null && digest.equals(this.metadata.digest())) {
+            return;
+        }
+        // Each call starts a fresh pass, as a retried transaction inserts the rules again.
+        Supplier<Iterator<CasbinRule>> rules = convertedRules != null
+                ? convertedRules::iterator
+                : () -> CasbinRule.iterateCasbinRules(model, null);
+        if (this.options.getSaveMode() == MongoAdapterOptions.SaveMode.SHADOW) {
+            this.shadowSaving(rules.get());
+        } else if (this.options.getSaveMode() == MongoAdapterOptions.SaveMode.DIFF) {
+            List<CasbinRule> casbinRules = convertedRules != null
+                    ? convertedRules
+                    : CasbinRule.transformToCasbinRule(model);
+            // A diff is recomputed from the stored rules, so retrying it is safe.
+            this.inTransaction(Operation.SAVE, session -> {
+                if (session == null) {
+                    this.retryPolicy.run(attempt -> this.diffSaving(null, casbinRules));
+                } else {
+                    this.diffSaving(session, casbinRules);
+                }
+            });
+        } else {
+            this.inTransaction(Operation.SAVE, session -> {
+                MongoCollection<CasbinRule> collection = this.getCollection(Operation.SAVE, session);
+                if (session == null) {
+                    this.clearCollection();
+                    this.indexManager.ensureIndexes(collection);
+                } else {
+                    // drop is not allowed within a transaction
+                    collection.deleteMany(session, new Document());
+                }
+                this.inserter.insert(collection, session, rules.get());
+            });
+        }
+        if (this.changeLog != null) {
+            this.changeLog.recordReset();
+        }
+        if (digest != null) {
+            this.metadata.saved(digest);
+        } else {
+            this.touch();
+        }
+    }
+
+    /**
+     * Checks whether the model holds exactly the stored policy, by comparing its digest
+     * with the one recorded by the last {@link #savePolicy}. Requires
+     * {@link MongoAdapterOptions#isSkipUnchangedSave()} on every adapter writing the policy.
+     *
+     * @param model the model.
+     * @return true if the stored policy is known to equal the policy of the model.
+     */
+    public boolean isPolicyCurrent(Model model) {
+        if (this.metadata == null) {
+            return false;
+        }
+        this.awaitWrites();
+        String stored = this.metadata.digest();
+        return stored != null && stored.equals(PolicyDigest.of(model));
+    }
+
+    /**
+     * Writes the rules into a fresh shadow collection, builds the indexes of the policy
+     * collection on it and renames it over the policy collection.
+     * <p>
+     * Indexes the adapter does not manage are copied from their full spec, as listed
+     * by listIndexes, so collations, text weights and other options survive the rename.
+     */
+    private void shadowSaving(Iterator<CasbinRule> rules) {
+        MongoCollection<CasbinRule> collection = this.getCollection(Operation.SAVE);
+        MongoDatabase database = this.mongoClient.getDatabase(this.dbName);
+        String shadowName = this.colName + SHADOW_SUFFIX + new ObjectId();
+        MongoCollection<CasbinRule> shadow = this.withConcerns(database
+                .withCodecRegistry(CODEC_REGISTRY)
+                .getCollection(shadowName, CasbinRule.class), Operation.SAVE);
+        try {
+            this.inserter.insert(shadow, rules);
+            List<Document> copies = new ArrayList<>();
+            for (Document index : collection.listIndexes()) {
+                String name = index.getString("name");
+                if (!"_id_".equals(name) && !this.indexManager.isManaged(name)) {
+                    Document spec = new Document(index);
+                    spec.remove("v");
+                    spec.remove("ns");
+                    copies.add(spec);
+                }
+            }
+            if (!copies.isEmpty()) {
+                Document createIndexes = new Document("createIndexes", shadowName).append("indexes", copies);
+                if (!shadow.getWriteConcern().isServerDefault()) {
+                    createIndexes.append("writeConcern", shadow.getWriteConcern().asDocument());
+                }
+                database.runCommand(createIndexes);
+            }
+            List<IndexModel> indexes = this.indexManager.getIndexes();
+            if (!indexes.isEmpty()) {
+                shadow.createIndexes(indexes);
+            }
+            shadow.renameCollection(new MongoNamespace(this.dbName, this.colName),
+                    new RenameCollectionOptions().dropTarget(true));
+        } catch (RuntimeException e) {
+            shadow.drop();
+            throw e;
+        }
+    }
+
+    /**
+     * Streams the stored rules once and compares them with the rules of the model.
+     * Stored rules missing from the model, and extra copies of duplicated rules,
+     * are deleted by _id; model rules not stored yet are inserted. All changes go
+     * out as one unordered bulk write.
+     */
+    private void diffSaving(ClientSession session, List<CasbinRule> casbinRules) {
+        Set<CasbinRule> pending = new HashSet<>(casbinRules.size() * 2);
+        for (CasbinRule casbinRule : casbinRules) {
+            pending.add(CasbinRule.canonical(casbinRule));
+        }
+        List<WriteModel<CasbinRule>> changes = new ArrayList<>();
+        MongoCollection<CasbinRule> collection = this.getCollection(Operation.SAVE, session);
+        FindIterable<CasbinRule> storedRules = session == null ? collection.find() : collection.find(session);
+        try (MongoCursor<CasbinRule> cursor = storedRules.iterator()) {
+            while (cursor.hasNext()) {
+                CasbinRule stored = cursor.next();
+                if (!pending.remove(CasbinRule.canonical(stored))) {
+                    changes.add(new DeleteOneModel<>(Filters.eq("_id", stored.getId())));
+                }
+            }
+        }
+        for (CasbinRule casbinRule : pending) {
+            changes.add(new InsertOneModel<>(casbinRule));
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        BulkWriteOptions bulkWriteOptions = new BulkWriteOptions().ordered(false);
+        if (session == null) {
+            collection.bulkWrite(changes, bulkWriteOptions);
+        } else {
+            collection.bulkWrite(session, changes, bulkWriteOptions);
+        }
+    }
+
+    /**
+     * Runs the body in a multi-document transaction when the transactional option is on,
+     * retrying it on transient errors. The body gets a null session, and runs without a
+     * transaction, when the option is off or the server is a standalone.
+     */
+    private void inTransaction(Operation operation, Consumer<ClientSession> body) {
+        if (!this.options.isTransactional() || !this.supportsTransactions()) {
+            body.accept(null);
+            return;
+        }
+        TransactionOptions transactionOptions = TransactionOptions.builder()
+                .writeConcern(this.options.getWriteConcerns().get(operation))
+                .readConcern(this.getReadConcern(operation))
+                .build();
+        try (ClientSession session = this.mongoClient.startSession()) {
+            session.withTransaction(() -> {
+                body.accept(session);
+                return null;
+            }, transactionOptions);
+        }
+    }
+
+    /**
+     * Transactions need a replica set or a sharded cluster. The topology is probed once.
+     */
+    private boolean supportsTransactions() {
+        Boolean supported = this.transactionsSupported;
+        if (supported == null) {
+            Document isMaster = this.mongoClient.getDatabase("admin").runCommand(new Document("isMaster", 1));
+            supported = isMaster.containsKey("setName") || "isdbgrid".equals(isMaster.getString("msg"));
+            this.transactionsSupported = supported;
+        }
+        return supported;
+    }
+
+    /**
+     * Waits for the queued writes, so reads and saves see them.
+     */
+    private void awaitWrites() {
+        if (this.writeBehind == null) return;
+        try {
+            this.writeBehind.flush().join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Writes the queued writes when {@link MongoAdapterOptions#isWriteBehind()} is on.
+     *
+     * @return a future completed once every write made before the call is acknowledged,
+     * or completed exceptionally with the first write failure since the previous flush.
+     */
+    public CompletableFuture<Void> flush() {
+        return this.writeBehind == null ? CompletableFuture.completedFuture(null) : this.writeBehind.flush();
+    }
+
+    /**
+     * Flushes the queued writes and stops the write-behind thread.
+     * The MongoClient is owned by the caller and stays open.
+     */
+    @Override
+    public void close() {
+        if (this.writeBehind != null) {
+            this.writeBehind.close();
+        }
+    }
+
+    /**
+     * Marks the policy as changed for readers checking its version.
+     */
+    /**
+     * Called when it is unknown which queued writes reached the collection: readers
+     * are sent to a full reload, as after a save.
+     */
+    private void lostTrack() {
+        if (this.changeLog != null) {
+            this.changeLog.recordReset();
+        }
+        this.touch();
+    }
+
+    private void touch() {
+        if (this.metadata != null) {
+            this.metadata.bump();
+        }
+    }
+
+    private void recordAdd(String ptype, List<List<String>> rules) {
+        if (this.changeLog != null) {
+            this.changeLog.recordAdd(ptype, rules);
+        }
+        this.touch();
+    }
+
+    private void recordRemove(String ptype, List<List<String>> rules) {
+        if (this.changeLog != null) {
+            this.changeLog.recordRemove(ptype, rules);
+        }
+        this.touch();
+    }
+
+    private void recordRemoveFiltered(String ptype, int fieldIndex, String... fieldValues) {
+        if (this.changeLog != null && fieldValues.length > 0) {
+            this.changeLog.recordRemoveFiltered(ptype, fieldIndex, fieldValues);
+        }
+        this.touch();
+    }
+
+    /**
+     * Encodes a rule to insert. With retries enabled it gets a client-side _id, so an
+     * insert retried after a lost acknowledgement fails on the _id instead of storing
+     * the rule twice. Upserts are idempotent already and must not carry an _id.
+     */
+    private RawBsonDocument encodeInsert(String ptype, List<String> rule) {
+        ObjectId id = this.options.getRetryPolicy() != null && !this.options.isIgnoreDuplicates()
+                ? new ObjectId()
+                : null;
+        return encodeRule(id, ptype, 0, rule);
+    }
+
+    private WriteModel<RawBsonDocument> insertModel(RawBsonDocument rule) {
+        // An ordered group stops at its first error, so duplicates must not raise one.
+        return this.options.isIgnoreDuplicates()
+                ? RuleDocuments.upsert(rule)
+                : new InsertOneModel<>(rule);
     }
 
     /**
@@ -145,18 +824,42 @@ public class MongoAdapter implements BatchAdapter {
      */
     @Override
     public void addPolicy(String sec, String ptype, List<String> rule) {
+        List<List<String>> rules = Collections.singletonList(rule);
+        if (this.writeBehind != null) {
+            RawBsonDocument document = this.encodeInsert(ptype, rule);
+            if (document != null) {
+                this.writeBehind.submit(Collections.singletonList(this.insertModel(document)),
+                        () -> this.recordAdd(ptype, rules));
+            }
+            return;
+        }
         this.adding(sec, ptype, rule);
+        this.recordAdd(ptype, rules);
     }
 
 
     void adding(String sec, String ptype, List<String> rule) {
-        ArrayList<String> rules = new ArrayList<>(rule);
-        rules.add(0, ptype);
-        for (int i = 0; i < 6 - rule.size(); i++) {
-            rules.add("");
+        RawBsonDocument document = this.encodeInsert(ptype, rule);
+        if (document != null) {
+            this.insertOne(document);
         }
-        Optional<CasbinRule> casbinRule = fromListRule(rules);
-        casbinRule.ifPresent(r -> this.getCollection().insertOne(r));
+    }
+
+    private void insertOne(RawBsonDocument rule) {
+        this.retryPolicy.run(attempt -> {
+            try {
+                this.getRawCollection(Operation.ADD, null).insertOne(rule);
+            } catch (MongoWriteException e) {
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+                // A duplicate _id on a retry is the rule stored by the earlier attempt.
+                if (!this.options.isIgnoreDuplicates()
+                        && !(attempt > 1 && ChunkedInserter.isIdDuplicate(e.getError().getMessage()))) {
+                    throw e;
+                }
+            }
+        });
     }
 
     /**
@@ -169,24 +872,30 @@ public class MongoAdapter implements BatchAdapter {
     @Override
     public void removePolicy(String sec, String ptype, List<String> rule) {
         if (rule.isEmpty()) return;
-        removeFilteredPolicy(sec, ptype, 0, rule.toArray(new String[0]));
-
+        List<List<String>> rules = Collections.singletonList(rule);
+        if (this.writeBehind != null) {
+            RawBsonDocument filter = encodeRule(ptype, 0, rule);
+            if (filter != null) {
+                this.writeBehind.submit(Collections.singletonList(new DeleteOneModel<>(filter)),
+                        () -> this.recordRemove(ptype, rules));
+            }
+            return;
+        }
+        this.removing(ptype, 0, rule);
+        this.recordRemove(ptype, rules);
     }
 
-    void removing(String sec, String ptype, int fieldIndex, String... fieldValues) {
-        if (fieldValues.length == 0) return;
-        Document filter = new Document("ptype", ptype);
-        int columnIndex = fieldIndex;
-        for (String fieldValue : fieldValues) {
-            if (CasbinRule.hasText(fieldValue)) filter.put("v" + columnIndex, fieldValue);
-            columnIndex++;
+    private void removing(String ptype, int fieldIndex, List<String> fieldValues) {
+        if (fieldValues.isEmpty()) return;
+        RawBsonDocument filter = encodeRule(ptype, fieldIndex, fieldValues);
+        if (filter != null) {
+            this.retryPolicy.run(attempt -> this.getRawCollection(Operation.REMOVE, null).deleteOne(filter));
         }
-        this.getCollection().deleteOne(filter);
-
     }
 
     /**
-     * Removes policy rules that match the specified field index and values from the storage.
+     * Removes the policy rules that match the specified field index and values from the storage.
+     * All the matching rules are removed, see {@link #deleteFilteredPolicy}.
      *
      * @param sec         the section, "p" or "g".
      * @param ptype       the policy type, "p", "p2", .. or "g", "g2", ..
@@ -195,7 +904,44 @@ public class MongoAdapter implements BatchAdapter {
      */
     @Override
     public void removeFilteredPolicy(String sec, String ptype, int fieldIndex, String... fieldValues) {
-        this.removing(sec, ptype, fieldIndex, fieldValues);
+        if (this.writeBehind != null) {
+            if (fieldValues.length == 0) return;
+            RawBsonDocument filter = encodeRule(ptype, fieldIndex, Arrays.asList(fieldValues));
+            if (filter != null) {
+                this.writeBehind.submit(Collections.singletonList(new DeleteManyModel<>(filter)),
+                        () -> this.recordRemoveFiltered(ptype, fieldIndex, fieldValues));
+            }
+            return;
+        }
+        this.deleteFilteredPolicy(sec, ptype, fieldIndex, fieldValues);
+    }
+
+    /**
+     * Removes every policy rule that matches the specified field index and values from
+     * the storage, in a single deleteMany. The policy index serves field index 0 and
+     * the role index field index 1; other field indexes need an extra index to avoid
+     * reading every rule of the type. Pending write-behind writes are stored first.
+     * A retried attempt only counts what it deleted itself, so after a lost
+     * acknowledgement the count can be lower than the number of rules removed.
+     *
+     * @param sec         the section, "p" or "g".
+     * @param ptype       the policy type, "p", "p2", .. or "g", "g2", ..
+     * @param fieldIndex  the policy rule's start index to be matched.
+     * @param fieldValues the field values to be matched, value ""
+     * @return the number of rules removed.
+     */
+    public long deleteFilteredPolicy(String sec, String ptype, int fieldIndex, String... fieldValues) {
+        if (fieldValues.length == 0) return 0;
+        RawBsonDocument filter = encodeRule(ptype, fieldIndex, Arrays.asList(fieldValues));
+        if (filter == null) return 0;
+        this.awaitWrites();
+        // deleteMany is idempotent: a retry deletes whatever the lost attempt left behind,
+        // but the rules the lost attempt deleted are not counted.
+        long[] deleted = new long[1];
+        this.retryPolicy.run(attempt -> deleted[0] += this.getRawCollection(Operation.REMOVE, null)
+                .deleteMany(filter).getDeletedCount());
+        this.recordRemoveFiltered(ptype, fieldIndex, fieldValues);
+        return deleted[0];
     }
 
     /**
@@ -207,19 +953,26 @@ public class MongoAdapter implements BatchAdapter {
      */
     @Override
     public void addPolicies(String sec, String ptype, List<List<String>> rules) {
-        ArrayList<CasbinRule> rulesOfRules = new ArrayList<>(rules.size());
+        ArrayList<RawBsonDocument> rulesOfRules = new ArrayList<>(rules.size());
         for (List<String> rule : rules) {
-            ArrayList<String> ruleClone = new ArrayList<>(rule);
-            ruleClone.add(0, ptype);
-            for (int i = 0; i < 6 - rule.size(); i++) {
-                ruleClone.add("");
+            RawBsonDocument document = this.encodeInsert(ptype, rule);
+            if (document != null) {
+                rulesOfRules.add(document);
             }
-            Optional<CasbinRule> casbinRule = fromListRule(ruleClone);
-            casbinRule.ifPresent(rulesOfRules::add);
         }
 
         if(!rulesOfRules.isEmpty()) {
-            this.getCollection().insertMany(rulesOfRules);
+            if (this.writeBehind != null) {
+                List<WriteModel<RawBsonDocument>> writes = new ArrayList<>(rulesOfRules.size());
+                for (RawBsonDocument document : rulesOfRules) {
+                    writes.add(this.insertModel(document));
+                }
+                this.writeBehind.submit(writes, () -> this.recordAdd(ptype, rules));
+                return;
+            }
+            this.inTransaction(Operation.BATCH, session -> this.rawInserter.insert(
+                    this.getRawCollection(Operation.BATCH, session), session, rulesOfRules.iterator()));
+            this.recordAdd(ptype, rules);
         }
     }
 
@@ -232,20 +985,29 @@ public class MongoAdapter implements BatchAdapter {
      */
     @Override
     public void removePolicies(String sec, String ptype, List<List<String>> rules) {
-        ArrayList<DeleteOneModel<CasbinRule>> deleteRequests = new ArrayList<>();
+        ArrayList<DeleteOneModel<RawBsonDocument>> deleteRequests = new ArrayList<>();
         for (List<String> rule : rules) {
             if (rule.isEmpty()) continue;
-            Document filter = new Document("ptype", ptype);
-            int columnIndex = 0;
-            for (String fieldValue : rule) {
-                if (CasbinRule.hasText(fieldValue)) filter.put("v" + columnIndex, fieldValue);
-                columnIndex++;
+            RawBsonDocument filter = encodeRule(ptype, 0, rule);
+            if (filter != null) {
+                deleteRequests.add(new DeleteOneModel<>(filter));
             }
-            deleteRequests.add(new DeleteOneModel<>(filter));
         }
 
         if(!deleteRequests.isEmpty()) {
-            this.getCollection().bulkWrite(deleteRequests);
+            if (this.writeBehind != null) {
+                this.writeBehind.submit(deleteRequests, () -> this.recordRemove(ptype, rules));
+                return;
+            }
+            this.inTransaction(Operation.BATCH, session -> {
+                MongoCollection<RawBsonDocument> collection = this.getRawCollection(Operation.BATCH, session);
+                if (session == null) {
+                    this.retryPolicy.run(attempt -> collection.bulkWrite(deleteRequests));
+                } else {
+                    collection.bulkWrite(session, deleteRequests);
+                }
+            });
+            this.recordRemove(ptype, rules);
         }
     }
 }
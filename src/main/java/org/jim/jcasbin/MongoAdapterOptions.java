@@ -0,0 +1,323 @@
+package org.jim.jcasbin;
+
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.model.IndexModel;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * MongoAdapterOptions holds the tuning knobs of {@link MongoAdapter}.
+ * Use {@link #builder()} to override the defaults.
+ */
+@Getter
+@Builder
+public class MongoAdapterOptions {
+    /**
+     * Whether to ensure a compound index on {@code ptype, v0..v5} when the adapter is
+     * constructed and after every save. Loads by policy type, filtered loads and
+     * removals use it instead of scanning the collection.
+     */
+    @Builder.Default
+    private final boolean policyIndex = true;
+
+    /**
+     * Whether the compound policy index is unique, so the collection cannot hold
+     * duplicate rules. Creating it fails if the collection already does.
+     */
+    private final boolean uniquePolicyIndex;
+
+    /**
+     * Whether to ensure an index on {@code ptype, v1}. Removals filtered from the second
+     * field, such as the grouping rules of a role removed by {@code deleteRole}, are not
+     * a prefix of the policy index and would otherwise read every rule of the type.
+     */
+    @Builder.Default
+    private final boolean roleIndex = true;
+
+    /**
+     * Whether adds are idempotent: rules already stored are skipped instead of
+     * inserted again, relying on the unique policy index. Retried or concurrent adds
+     * then never create duplicates, so loads can use {@link Deduplication#NONE}.
+     * Implies {@link #uniquePolicyIndex}.
+     * <p>
+     * Rules are stored without the empty fields, while older versions of the adapter
+     * padded them with "". The unique index tells the two apart, so rules stored that
+     * way must be saved again with {@link MongoAdapter#savePolicy} before this is on.
+     * Upserts match either form and replace a padded copy.
+     */
+    private final boolean ignoreDuplicates;
+
+    /**
+     * Further indexes ensured on the policy collection next to the policy index.
+     */
+    @Singular
+    private final List<IndexModel> extraIndexes;
+
+    /**
+     * Whether loads are hinted to the compound policy index, so that a full load is
+     * answered from the index alone without touching the documents. Implies {@link #policyIndex}.
+     */
+    private final boolean coveringIndex;
+
+    /**
+     * The number of threads used by a full load. With more than one thread the
+     * collection is partitioned by {@code ptype} and every partition is read on
+     * its own cursor; {@link #coveringIndex} keeps those partition queries indexed.
+     */
+    @Builder.Default
+    private final int loadParallelism = 1;
+
+    /**
+     * Where duplicate rules are merged during a load.
+     */
+    @Builder.Default
+    private final Deduplication deduplication = Deduplication.CLIENT;
+
+    /**
+     * The number of documents per cursor batch during a load, or 0 for the driver default.
+     * Larger batches mean fewer round-trips for big policy collections.
+     */
+    private final int batchSize;
+
+    /**
+     * The server-side time limit of each load query in milliseconds, or 0 for no limit.
+     */
+    private final long maxTimeMS;
+
+    /**
+     * Whether load cursors are kept open on the server beyond the idle timeout.
+     */
+    private final boolean noCursorTimeout;
+
+    /**
+     * The read preference of loads, e.g. {@link ReadPreference#secondaryPreferred()}
+     * to move load traffic off the primary. {@code null} keeps the client default.
+     */
+    private final ReadPreference readPreference;
+
+    /**
+     * The read concern of loads. {@code null} keeps the client default.
+     * A read concern configured for {@link Operation#LOAD} takes precedence.
+     */
+    private final ReadConcern readConcern;
+
+    /**
+     * Write concerns by kind of operation, e.g. {@code w:1} for {@link Operation#SAVE}
+     * reseeds and {@code w:majority} for {@link Operation#ADD}. Operations without an
+     * entry keep the client default. Within a transaction the concern applies to the
+     * transaction as a whole, and must be acknowledged.
+     */
+    @Singular
+    private final Map<Operation, WriteConcern> writeConcerns;
+
+    /**
+     * Read concerns by kind of operation. Only loads, and the stored rules read by
+     * {@link SaveMode#DIFF} saves, read from the policy collection.
+     */
+    @Singular
+    private final Map<Operation, ReadConcern> readConcerns;
+
+    /**
+     * Whether every mutation is also recorded in a capped {@code <collection>_changes}
+     * collection, which {@link MongoAdapter#loadIncrementalPolicy} replays instead of
+     * reloading the whole policy. Must be enabled on every adapter writing the policy.
+     */
+    private final boolean changeLog;
+
+    /**
+     * The size of the capped change log collection in bytes. Once it is rolled over
+     * past a checkpoint, the next incremental load falls back to a full reload.
+     */
+    @Builder.Default
+    private final long changeLogSizeInBytes = 16L * 1024 * 1024;
+
+    /**
+     * How far before the checkpoint change log entries are replayed, in milliseconds,
+     * to tolerate clock skew between the writers generating the entry ids.
+     */
+    @Builder.Default
+    private final long changeLogReplayWindowMS = 1000;
+
+    /**
+     * Whether every write increments the policy version kept in {@code <collection>_meta}.
+     * Enable it on adapters that only write the policy while others read it from a snapshot.
+     */
+    private final boolean versioned;
+
+    /**
+     * The local file holding a binary snapshot of the policy, or {@code null} for none.
+     * A full load reads the snapshot instead of the collection while its version is current
+     * and rewrites it otherwise. Implies {@link #versioned}, which every writer must enable.
+     */
+    private final Path snapshotPath;
+
+    /**
+     * The maximum number of distinct field values canonicalized during a load, or 0 to
+     * disable interning. Rules then share one instance per repeated subject, domain or action.
+     */
+    private final int internStrings;
+
+    /**
+     * Whether the interning dictionary holds its values weakly instead of strongly.
+     */
+    private final boolean internWeak;
+
+    /**
+     * How {@link MongoAdapter#savePolicy} replaces the stored policy.
+     */
+    @Builder.Default
+    private final SaveMode saveMode = SaveMode.REPLACE;
+
+    /**
+     * The maximum number of documents per unordered {@code insertMany} chunk used by
+     * {@link MongoAdapter#savePolicy} and {@link MongoAdapter#addPolicies}, or 0, the
+     * default, for one chunk, which the driver splits into batches of at most 100,000
+     * documents or 48MB. Smaller chunks bound memory use and let {@link #writeParallelism}
+     * write several at once.
+     */
+    private final int insertBatchSize;
+
+    /**
+     * The maximum estimated size of an insert chunk in bytes, or 0 for no limit.
+     */
+    private final long insertBatchBytes;
+
+    /**
+     * The number of insert chunks written concurrently, each on its own pooled connection.
+     */
+    @Builder.Default
+    private final int writeParallelism = 1;
+
+    /**
+     * Whether {@link MongoAdapter#savePolicy}, {@link MongoAdapter#addPolicies} and
+     * {@link MongoAdapter#removePolicies} run in a multi-document transaction, retried on
+     * transient errors, so a failure never leaves a half-written policy behind.
+     * Ignored on standalone servers, which do not support transactions, and by
+     * {@link SaveMode#SHADOW}, whose rename is atomic already.
+     */
+    private final boolean transactional;
+
+    /**
+     * Whether {@link MongoAdapter#savePolicy} stores a digest of the saved rules in
+     * {@code <collection>_meta} and does nothing when the model's digest matches it.
+     * Any other write clears the digest. Implies {@link #versioned}. The digest is taken
+     * while converting the rules, which a save then holds in memory before writing them.
+     */
+    private final boolean skipUnchangedSave;
+
+    /**
+     * Whether {@link MongoAdapter#addPolicy}, {@link MongoAdapter#removePolicy} and the other
+     * incremental writes return at once and are written in the background, grouped into
+     * ordered bulk writes. Loads and saves flush the queue first. Call
+     * {@link MongoAdapter#flush()} to wait for durability and {@link MongoAdapter#close()}
+     * before shutting down, or queued writes are lost.
+     */
+    private final boolean writeBehind;
+
+    /**
+     * The number of queued writes that triggers a group commit.
+     */
+    @Builder.Default
+    private final int writeBehindBatchSize = 1000;
+
+    /**
+     * How long, in milliseconds, a queued write may wait for others to join its group.
+     */
+    @Builder.Default
+    private final long writeBehindLingerMS = 10;
+
+    /**
+     * Called on the flusher thread after each group commit with the number of writes
+     * in the group and the failure, or {@code null} when the group was written.
+     */
+    private final BiConsumer<Integer, Throwable> writeBehindListener;
+
+    /**
+     * Retries operations failing on transient errors; {@code null} disables retries.
+     * Inserted rules then get client-side _ids, so a retried insert never stores a rule
+     * twice. A full load on a single cursor reads in _id order, without the
+     * {@link #coveringIndex} hint, so an interrupted load resumes after the last rule it
+     * read. Filtered loads, the partitions of a parallel load and loads with
+     * {@link Deduplication#SERVER} keep their index and restart instead, merging on the
+     * client. Change log and metadata writes are not retried.
+     */
+    private final RetryPolicy retryPolicy;
+
+    public static MongoAdapterOptions defaults() {
+        return builder().build();
+    }
+
+    /**
+     * The kinds of operation whose concerns can be configured separately.
+     */
+    public enum Operation {
+        /**
+         * {@link MongoAdapter#loadPolicy}, {@link MongoAdapter#loadFilteredPolicy} and
+         * {@link MongoAdapter#loadIncrementalPolicy}.
+         */
+        LOAD,
+        /**
+         * {@link MongoAdapter#savePolicy}.
+         */
+        SAVE,
+        /**
+         * {@link MongoAdapter#addPolicy}.
+         */
+        ADD,
+        /**
+         * {@link MongoAdapter#removePolicy} and {@link MongoAdapter#removeFilteredPolicy}.
+         */
+        REMOVE,
+        /**
+         * {@link MongoAdapter#addPolicies}, {@link MongoAdapter#removePolicies}
+         * and the group commits of {@link #writeBehind}.
+         */
+        BATCH
+    }
+
+    public enum Deduplication {
+        /**
+         * Rules already present in the assertion are skipped on the client.
+         * This reuses the assertion's own policy index and keeps no extra copy.
+         */
+        CLIENT,
+        /**
+         * Rules are grouped on {@code ptype, v0..v5} by an aggregation,
+         * so duplicates are never sent over the wire.
+         */
+        SERVER,
+        /**
+         * No deduplication at all. Only safe when a unique index guarantees
+         * the collection holds no duplicate rules.
+         */
+        NONE
+    }
+
+    public enum SaveMode {
+        /**
+         * Drops the collection and inserts the rules again. Readers can observe an
+         * empty or partial policy meanwhile, and indexes are rebuilt on the live collection.
+         */
+        REPLACE,
+        /**
+         * Inserts the rules into a shadow collection, builds the indexes of the policy
+         * collection on it and swaps it in with {@code renameCollection(dropTarget=true)}.
+         * Readers see either the old or the complete new policy. Not supported on sharded collections.
+         */
+        SHADOW,
+        /**
+         * Compares the stored rules with the model and only inserts the missing rules
+         * and deletes the stale ones, in one unordered bulk write. Saving a large policy
+         * with few changes then costs one read pass and a handful of writes.
+         */
+        DIFF
+    }
+}
@@ -0,0 +1,102 @@
+package org.jim.jcasbin;
+
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.casbin.jcasbin.exception.CasbinAdapterException;
+import org.casbin.jcasbin.persist.file_adapter.FilteredAdapter;
+import org.jim.jcasbin.domain.CasbinRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PolicyFilter selects the slice of the policy loaded by
+ * {@link MongoAdapter#loadFilteredPolicy(org.casbin.jcasbin.model.Model, Object)}.
+ * <p>
+ * Each entry matches one policy type and optionally the values of its
+ * {@code v0..v5} fields; an empty value matches anything. A rule is loaded
+ * when it matches any entry. For example:
+ * <pre>
+ * new PolicyFilter()
+ *         .add("p", "", "domain1")
+ *         .add("g", "", "", "domain1");
+ * </pre>
+ * The entries become a single query on {@code ptype} and {@code v0..v5},
+ * which is answered from the compound policy index.
+ */
+public class PolicyFilter {
+    private final List<Bson> entries = new ArrayList<>();
+
+    /**
+     * Adds an entry matching the rules of the policy type whose fields
+     * start with the given values.
+     *
+     * @param ptype       the policy type, "p", "p2", .. or "g", "g2", ..
+     * @param fieldValues the values of v0, v1, ..; value "" matches anything.
+     * @return this filter.
+     */
+    public PolicyFilter add(String ptype, String... fieldValues) {
+        return add(ptype, 0, fieldValues);
+    }
+
+    /**
+     * Adds an entry matching the rules of the policy type whose fields
+     * from the field index on have the given values.
+     *
+     * @param ptype       the policy type, "p", "p2", .. or "g", "g2", ..
+     * @param fieldIndex  the policy rule's start index to be matched.
+     * @param fieldValues the field values to be matched, value "" matches anything.
+     * @return this filter.
+     */
+    public PolicyFilter add(String ptype, int fieldIndex, String... fieldValues) {
+        entries.add(ruleFilter(ptype, fieldIndex, fieldValues));
+        return this;
+    }
+
+    /**
+     * Converts a jCasbin file adapter filter, whose {@code p} and {@code g}
+     * arrays hold the field values of the "p" and "g" policy types. Like the
+     * file adapter, the other policy types, "p2", "g2", .., are loaded in full.
+     */
+    public static PolicyFilter from(FilteredAdapter.Filter filter) {
+        PolicyFilter policyFilter = new PolicyFilter();
+        policyFilter.add("p", filter.p == null ? new String[0] : filter.p);
+        policyFilter.add("g", filter.g == null ? new String[0] : filter.g);
+        policyFilter.entries.add(Filters.nin("ptype", "p", "g"));
+        return policyFilter;
+    }
+
+    /**
+     * Accepts a {@link PolicyFilter} or a jCasbin file adapter filter, as passed to
+     * {@code loadFilteredPolicy}.
+     *
+     * @throws CasbinAdapterException if the filter type is not supported.
+     */
+    static PolicyFilter of(Object filter) throws CasbinAdapterException {
+        if (filter instanceof PolicyFilter) {
+            return (PolicyFilter) filter;
+        } else if (filter instanceof FilteredAdapter.Filter) {
+            return from((FilteredAdapter.Filter) filter);
+        }
+        throw new CasbinAdapterException("unsupported filter type: " + filter.getClass().getName());
+    }
+
+    static Document ruleFilter(String ptype, int fieldIndex, String... fieldValues) {
+        Document filter = new Document("ptype", ptype);
+        int columnIndex = fieldIndex;
+        for (String fieldValue : fieldValues) {
+            if (CasbinRule.hasText(fieldValue)) filter.put("v" + columnIndex, fieldValue);
+            columnIndex++;
+        }
+        return filter;
+    }
+
+    Bson toBson() {
+        if (entries.isEmpty()) {
+            // matches nothing
+            return Filters.in("ptype");
+        }
+        return entries.size() == 1 ? entries.get(0) : Filters.or(entries);
+    }
+}
@@ -0,0 +1,69 @@
+package org.jim.jcasbin;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+/**
+ * PolicyMetadata is a single document in {@code <collection>_meta} describing
+ * the policy collection. Its version is incremented by every write, which lets
+ * readers check cheaply whether the policy changed since they last loaded it.
+ * A full save also stores the digest of the saved policy; any other write
+ * removes it, as the stored policy no longer matches it.
+ */
+class PolicyMetadata {
+    private static final Bson POLICY_DOCUMENT = Filters.eq("_id", "policy");
+
+    private final MongoCollection<Document> collection;
+
+    PolicyMetadata(MongoDatabase database, String colName) {
+        this.collection = database.getCollection(colName);
+    }
+
+    /**
+     * Returns the current version of the policy, 0 if it has never been written.
+     */
+    long version() {
+        Document metadata = this.collection.find(POLICY_DOCUMENT)
+                .projection(Projections.include("version"))
+                .first();
+        if (metadata == null) {
+            return 0;
+        }
+        Number version = metadata.get("version", Number.class);
+        return version == null ? 0 : version.longValue();
+    }
+
+    /**
+     * Returns the digest of the stored policy, or null if it is unknown.
+     */
+    String digest() {
+        Document metadata = this.collection.find(POLICY_DOCUMENT)
+                .projection(Projections.include("digest"))
+                .first();
+        return metadata == null ? null : metadata.getString("digest");
+    }
+
+    /**
+     * Marks the policy as changed.
+     */
+    void bump() {
+        this.collection.updateOne(POLICY_DOCUMENT,
+                Updates.combine(Updates.inc("version", 1L), Updates.unset("digest")),
+                new UpdateOptions().upsert(true));
+    }
+
+    /**
+     * Marks the policy as replaced by a policy with the given digest.
+     */
+    void saved(String digest) {
+        this.collection.updateOne(POLICY_DOCUMENT,
+                Updates.combine(Updates.inc("version", 1L), Updates.set("digest", digest)),
+                new UpdateOptions().upsert(true));
+    }
+}
@@ -0,0 +1,150 @@
+package org.jim.jcasbin;
+
+import org.casbin.jcasbin.model.Assertion;
+import org.casbin.jcasbin.model.Model;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PolicySnapshot is a local binary copy of the policy, tagged with the
+ * {@link PolicyMetadata} version it was loaded at.
+ * <p>
+ * The file holds a header, a table of the distinct strings and the rules as
+ * indexes into that table, so repeated subjects, domains and actions are
+ * stored once. It is read through a memory-mapped buffer.
+ */
+class PolicySnapshot {
+    private static final Logger log = LoggerFactory.getLogger(PolicySnapshot.class);
+    private static final int MAGIC = 0x4353_4e50;
+    private static final int FORMAT = 1;
+    private static final String[] SECTIONS = {"p", "g"};
+
+    private final Path path;
+
+    PolicySnapshot(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Loads the snapshot into the model if it exists and was taken at the given version.
+     *
+     * @return true if the model was populated from the snapshot.
+     */
+    boolean load(Model model, long version) {
+        if (!Files.isRegularFile(this.path)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                log.warn("policy snapshot [{}] is too large to be mapped", this.path);
+                return false;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 16 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT
+                    || buffer.getLong() != version) {
+                return false;
+            }
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            int ruleCount = buffer.getInt();
+            for (int i = 0; i < ruleCount; i++) {
+                String ptype = strings[buffer.getInt()];
+                String[] rule = new String[buffer.get()];
+                for (int j = 0; j < rule.length; j++) {
+                    rule[j] = strings[buffer.getInt()];
+                }
+                MongoAdapter.loadPolicyLine(ptype, new ArrayList<>(Arrays.asList(rule)), model, false);
+            }
+            return true;
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            log.warn("failed to read policy snapshot [{}]", this.path, e);
+            model.clearPolicy();
+            return false;
+        }
+    }
+
+    /**
+     * Writes the policy of the model to the snapshot, replacing it atomically.
+     */
+    void save(Model model, long version) {
+        Map<String, Integer> indexes = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int ruleCount = 0;
+        for (String sec : SECTIONS) {
+            Map<String, Assertion> section = model.model.get(sec);
+            if (section == null) {
+                continue;
+            }
+            for (Assertion assertion : section.values()) {
+                indexOf(assertion.key, indexes, strings);
+                for (List<String> rule : assertion.policy) {
+                    rule.forEach(value -> indexOf(value, indexes, strings));
+                    ruleCount++;
+                }
+            }
+        }
+
+        Path temp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeLong(version);
+                out.writeInt(strings.size());
+                for (String value : strings) {
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                out.writeInt(ruleCount);
+                for (String sec : SECTIONS) {
+                    Map<String, Assertion> section = model.model.get(sec);
+                    if (section == null) {
+                        continue;
+                    }
+                    for (Assertion assertion : section.values()) {
+                        int ptype = indexes.get(assertion.key);
+                        for (List<String> rule : assertion.policy) {
+                            out.writeInt(ptype);
+                            out.writeByte(rule.size());
+                            for (String value : rule) {
+                                out.writeInt(indexes.get(value));
+                            }
+                        }
+                    }
+                }
+            }
+            Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("failed to write policy snapshot [{}]", this.path, e);
+        }
+    }
+
+    private static void indexOf(String value, Map<String, Integer> indexes, List<String> strings) {
+        if (!indexes.containsKey(value)) {
+            indexes.put(value, strings.size());
+            strings.add(value);
+        }
+    }
+}
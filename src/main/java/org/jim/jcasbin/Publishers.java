@@ -0,0 +1,101 @@
+package org.jim.jcasbin;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Publishers bridges the Reactive Streams publishers of the MongoDB driver
+ * to {@link CompletableFuture}s for {@link AsyncMongoAdapter}.
+ */
+final class Publishers {
+    private Publishers() {
+    }
+
+    /**
+     * Subscribes to a publisher of at most a few results, such as a write.
+     *
+     * @return a future completed with the last result, or null when there is none.
+     */
+    static <T> CompletableFuture<T> last(Publisher<T> publisher) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        publisher.subscribe(new Subscriber<T>() {
+            private T last;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(T item) {
+                this.last = item;
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                result.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                result.complete(this.last);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Consumes every item of the publisher, with at most {@code demand} items
+     * requested and not yet consumed, so a slow consumer slows the cursor down
+     * instead of buffering the results. A failing consumer cancels the subscription.
+     *
+     * @return a future completed once the publisher completes.
+     */
+    static <T> CompletableFuture<Void> forEach(Publisher<T> publisher, int demand, Consumer<? super T> consumer) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        int window = Math.max(1, demand);
+        publisher.subscribe(new Subscriber<T>() {
+            private Subscription subscription;
+            private int outstanding;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                this.outstanding = window;
+                subscription.request(window);
+            }
+
+            @Override
+            public void onNext(T item) {
+                if (done.isDone()) return;
+                try {
+                    consumer.accept(item);
+                } catch (RuntimeException e) {
+                    this.subscription.cancel();
+                    done.completeExceptionally(e);
+                    return;
+                }
+                // Top the demand up once half of it is consumed.
+                if (--this.outstanding <= window / 2) {
+                    this.subscription.request(window - this.outstanding);
+                    this.outstanding = window;
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                done.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        return done;
+    }
+}
@@ -0,0 +1,137 @@
+package org.jim.jcasbin;
+
+import com.mongodb.MongoCursorNotFoundException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import lombok.Builder;
+import lombok.Getter;
+import org.casbin.jcasbin.exception.CasbinAdapterException;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
+
+/**
+ * RetryPolicy retries adapter operations that failed on a transient MongoDB error,
+ * waiting an exponentially growing, jittered delay between the attempts.
+ * <p>
+ * An error is retried when MongoDB labels it {@code RetryableWriteError} or
+ * {@code TransientTransactionError}, or when it is a network error, a server
+ * selection timeout, a primary stepping down or a lost cursor. Anything else,
+ * such as a duplicate key or a validation error, fails at once.
+ * <p>
+ * For example:
+ * <pre>
+ * RetryPolicy.builder()
+ *         .maxAttempts(5)
+ *         .initialBackoffMS(50)
+ *         .maxBackoffMS(2000)
+ *         .build();
+ * </pre>
+ */
+@Getter
+@Builder
+public class RetryPolicy {
+    static final String RETRYABLE_WRITE_ERROR = "RetryableWriteError";
+    static final String TRANSIENT_TRANSACTION_ERROR = "TransientTransactionError";
+    static final RetryPolicy NONE = builder().maxAttempts(1).build();
+
+    /**
+     * The number of attempts, the first one included.
+     */
+    @Builder.Default
+    private final int maxAttempts = 3;
+
+    /**
+     * The delay, in milliseconds, before the first retry.
+     */
+    @Builder.Default
+    private final long initialBackoffMS = 100;
+
+    /**
+     * The upper bound, in milliseconds, of the delay between two attempts.
+     */
+    @Builder.Default
+    private final long maxBackoffMS = 5000;
+
+    /**
+     * The factor applied to the delay after each retry.
+     */
+    @Builder.Default
+    private final double multiplier = 2;
+
+    /**
+     * The fraction of each delay that is randomized, between 0 and 1, so clients
+     * failing together do not retry together.
+     */
+    @Builder.Default
+    private final double jitter = 0.5;
+
+    public static RetryPolicy defaults() {
+        return builder().build();
+    }
+
+    /**
+     * Returns true if the error is transient and the operation may be retried.
+     *
+     * @param error the error.
+     * @return true if the error is transient.
+     */
+    public boolean isRetryable(Throwable error) {
+        if (!(error instanceof MongoException)) {
+            return false;
+        }
+        MongoException e = (MongoException) error;
+        return e.hasErrorLabel(RETRYABLE_WRITE_ERROR)
+                || e.hasErrorLabel(TRANSIENT_TRANSACTION_ERROR)
+                || e instanceof MongoSocketException
+                || e instanceof MongoTimeoutException
+                || e instanceof MongoNotPrimaryException
+                || e instanceof MongoNodeIsRecoveringException
+                || e instanceof MongoCursorNotFoundException;
+    }
+
+    /**
+     * Returns the delay before the given retry, jittered below its exponential value.
+     *
+     * @param retry the retry, 1 for the first one.
+     * @return the delay in milliseconds.
+     */
+    long backoff(int retry) {
+        double delay = Math.min(this.maxBackoffMS, this.initialBackoffMS * Math.pow(this.multiplier, retry - 1));
+        double jitter = Math.max(0, Math.min(1, this.jitter));
+        return (long) (delay * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * Runs the body until it succeeds, fails on an error that is not retryable, or runs
+     * out of attempts. The body is given the attempt number, 1 for the first attempt, so
+     * it can resume or recognise the effects of an earlier attempt. The last error is
+     * rethrown with the earlier ones attached as suppressed exceptions.
+     */
+    void run(IntConsumer body) {
+        RuntimeException failure = null;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                body.accept(attempt);
+                return;
+            } catch (RuntimeException e) {
+                if (failure != null) {
+                    e.addSuppressed(failure);
+                }
+                failure = e;
+                if (attempt >= this.maxAttempts || !this.isRetryable(e)) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(this.backoff(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CasbinAdapterException("interrupted while retrying", failure);
+            }
+        }
+    }
+}
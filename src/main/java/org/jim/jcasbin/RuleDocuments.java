@@ -0,0 +1,188 @@
+package org.jim.jcasbin;
+
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
+import org.jim.jcasbin.domain.CasbinRule;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * RuleDocuments encodes a policy rule straight into the BSON bytes of a
+ * {@link RawBsonDocument}, for the incremental write path.
+ * <p>
+ * The size of the document is computed first, so each rule costs one exactly
+ * sized byte array: there is no copy of the rule, no {@link CasbinRule} and no
+ * growing output buffer. Empty values are left out, as {@link CasbinRule#canonical}
+ * does, so the documents match the ones written by {@link MongoAdapter#savePolicy}.
+ * <p>
+ * The same layout serves as the filter of a removal: {@code ptype} plus the
+ * non-empty values, matched field by field.
+ */
+final class RuleDocuments {
+    private static final String[] FIELD_NAMES = {"v0", "v1", "v2", "v3", "v4", "v5"};
+    private static final byte STRING_TYPE = 0x02;
+    private static final byte OBJECT_ID_TYPE = 0x07;
+    // type, "_id" cstring and 12 bytes
+    private static final int ID_SIZE = 1 + 4 + 12;
+
+    /**
+     * Matches a field left out of the rule. Older versions of the adapter padded short
+     * rules with "" instead, and the unique policy index tells the two apart.
+     */
+    static final BsonDocument ABSENT = new BsonDocument("$in",
+            new BsonArray(Arrays.asList(BsonNull.VALUE, new BsonString(""))));
+
+    private RuleDocuments() {
+    }
+
+    /**
+     * Encodes the rule, or the filter matching it, as {@code ptype, v<fieldIndex>, ..}.
+     *
+     * @return the document, or null when the values do not fit in v0..v5.
+     */
+    static RawBsonDocument encode(String ptype, int fieldIndex, List<String> values) {
+        return encode(null, ptype, fieldIndex, values);
+    }
+
+    /**
+     * Encodes the rule with the given _id first, or without an _id when it is null.
+     *
+     * @return the document, or null when the values do not fit in v0..v5.
+     */
+    static RawBsonDocument encode(ObjectId id, String ptype, int fieldIndex, List<String> values) {
+        if (fieldIndex < 0 || fieldIndex + values.size() > FIELD_NAMES.length) {
+            return null;
+        }
+        int size = 4 + (id == null ? 0 : ID_SIZE) + elementSize("ptype", ptype) + 1;
+        for (int i = 0; i < values.size(); i++) {
+            String value = values.get(i);
+            if (CasbinRule.hasText(value)) {
+                size += elementSize(FIELD_NAMES[fieldIndex + i], value);
+            }
+        }
+        byte[] bytes = new byte[size];
+        int position = writeInt(bytes, 0, size);
+        if (id != null) {
+            bytes[position++] = OBJECT_ID_TYPE;
+            bytes[position++] = '_';
+            bytes[position++] = 'i';
+            bytes[position++] = 'd';
+            bytes[position++] = 0;
+            System.arraycopy(id.toByteArray(), 0, bytes, position, 12);
+            position += 12;
+        }
+        position = writeElement(bytes, position, "ptype", ptype);
+        for (int i = 0; i < values.size(); i++) {
+            String value = values.get(i);
+            if (CasbinRule.hasText(value)) {
+                position = writeElement(bytes, position, FIELD_NAMES[fieldIndex + i], value);
+            }
+        }
+        bytes[position] = 0;
+        return new RawBsonDocument(bytes);
+    }
+
+    /**
+     * Returns a write storing the rule unless an identical one is stored already.
+     * Absent fields are matched with {@link #ABSENT}, so a rule never matches a longer
+     * one but does match a copy stored with "" padding, which it then replaces.
+     */
+    static WriteModel<RawBsonDocument> upsert(RawBsonDocument rule) {
+        BsonDocument filter = new BsonDocument("ptype", rule.get("ptype"));
+        for (String name : FIELD_NAMES) {
+            BsonValue value = rule.get(name);
+            filter.append(name, value == null ? ABSENT : value);
+        }
+        return new ReplaceOneModel<>(filter, rule, new ReplaceOptions().upsert(true));
+    }
+
+    static long size(RawBsonDocument document) {
+        return document.getByteBuffer().remaining();
+    }
+
+    private static int elementSize(String name, String value) {
+        // type, cstring name, int32 length, UTF-8 bytes and terminator
+        return 1 + name.length() + 1 + 4 + utf8Length(value) + 1;
+    }
+
+    private static int writeElement(byte[] bytes, int position, String name, String value) {
+        bytes[position++] = STRING_TYPE;
+        for (int i = 0; i < name.length(); i++) {
+            bytes[position++] = (byte) name.charAt(i);
+        }
+        bytes[position++] = 0;
+        int start = position + 4;
+        int end = writeUtf8(bytes, start, value);
+        writeInt(bytes, position, end - start + 1);
+        bytes[end] = 0;
+        return end + 1;
+    }
+
+    private static int writeInt(byte[] bytes, int position, int value) {
+        bytes[position] = (byte) value;
+        bytes[position + 1] = (byte) (value >> 8);
+        bytes[position + 2] = (byte) (value >> 16);
+        bytes[position + 3] = (byte) (value >> 24);
+        return position + 4;
+    }
+
+    /**
+     * The length of the string in UTF-8, counting an unpaired surrogate as the
+     * one byte '?' it is replaced with, like {@link String#getBytes}.
+     */
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static int writeUtf8(byte[] bytes, int position, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes[position++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xc0 | c >> 6);
+                bytes[position++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                bytes[position++] = (byte) (0xf0 | codePoint >> 18);
+                bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                bytes[position++] = (byte) (0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                bytes[position++] = '?';
+            } else {
+                bytes[position++] = (byte) (0xe0 | c >> 12);
+                bytes[position++] = (byte) (0x80 | c >> 6 & 0x3f);
+                bytes[position++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,242 @@
+package org.jim.jcasbin;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.WriteModel;
+import org.casbin.jcasbin.exception.CasbinAdapterException;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * WriteBehindBuffer queues single-rule writes and commits them as a group.
+ * <p>
+ * Mutations from every caller are appended to one queue in submission order and
+ * written by a single flusher thread as ordered {@code bulkWrite}s, so an add followed
+ * by a remove of the same rule is never reordered. A group is written once it holds
+ * {@code batchSize} mutations or once the oldest of them has waited {@code lingerMS}.
+ * <p>
+ * Each submission carries a callback run on the flusher thread after its group is
+ * acknowledged, which keeps the change log and policy version behind the data they
+ * describe. A failed group is reported to the listener and to the next flush; the
+ * mutations after the failing one in that group are not written. The callbacks of the
+ * mutations known to be written before the failure still run, and the failure callback
+ * runs after them: which of the other mutations were written is unknown, and a call
+ * whose mutations span groups may be half-written, so readers have to reload in full.
+ */
+class WriteBehindBuffer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+    private final MongoCollection<RawBsonDocument> collection;
+    private final int batchSize;
+    private final long lingerMS;
+    private final BiConsumer<Integer, Throwable> listener;
+    private final RetryPolicy retryPolicy;
+    private final Runnable onFailure;
+    private final ScheduledExecutorService flusher;
+    private final Object lock = new Object();
+    private List<Mutation> queue = new ArrayList<>();
+    private ScheduledFuture<?> linger;
+    private RuntimeException failure;
+
+    WriteBehindBuffer(MongoCollection<RawBsonDocument> collection, int batchSize, long lingerMS,
+                      BiConsumer<Integer, Throwable> listener, RetryPolicy retryPolicy, Runnable onFailure) {
+        this.collection = collection;
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerMS = Math.max(0, lingerMS);
+        this.listener = listener;
+        this.retryPolicy = retryPolicy == null ? RetryPolicy.NONE : retryPolicy;
+        this.onFailure = onFailure;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "casbin-mongo-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues the writes of one adapter call.
+     *
+     * @param writes    the writes, applied in order.
+     * @param onDurable run once the writes are acknowledged.
+     */
+    void submit(List<? extends WriteModel<RawBsonDocument>> writes, Runnable onDurable) {
+        if (writes.isEmpty()) return;
+        synchronized (this.lock) {
+            for (int i = 0; i < writes.size(); i++) {
+                this.queue.add(new Mutation(writes.get(i), i == writes.size() - 1 ? onDurable : null));
+            }
+            if (this.queue.size() >= this.batchSize) {
+                this.cancelLinger();
+                this.flusher.execute(this::drain);
+            } else if (this.linger == null) {
+                this.linger = this.flusher.schedule(this::drain, this.lingerMS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Writes everything queued so far.
+     *
+     * @return a future completed once every earlier mutation is acknowledged, or
+     * completed exceptionally with the first failure since the previous flush.
+     */
+    CompletableFuture<Void> flush() {
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+        try {
+            this.flusher.execute(() -> {
+                this.drain();
+                RuntimeException e;
+                synchronized (this.lock) {
+                    e = this.failure;
+                    this.failure = null;
+                }
+                if (e == null) {
+                    flushed.complete(null);
+                } else {
+                    flushed.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            flushed.completeExceptionally(new CasbinAdapterException("write-behind buffer is closed", e));
+        }
+        return flushed;
+    }
+
+    /**
+     * Flushes the queue and stops the flusher thread.
+     */
+    @Override
+    public void close() {
+        CompletableFuture<Void> flushed = this.flush();
+        this.flusher.shutdown();
+        flushed.join();
+    }
+
+    private void drain() {
+        List<Mutation> mutations;
+        synchronized (this.lock) {
+            this.cancelLinger();
+            mutations = this.queue;
+            this.queue = new ArrayList<>();
+        }
+        for (int from = 0; from < mutations.size(); from += this.batchSize) {
+            this.write(mutations.subList(from, Math.min(mutations.size(), from + this.batchSize)));
+        }
+    }
+
+    private void write(List<Mutation> group) {
+        List<WriteModel<RawBsonDocument>> writes = new ArrayList<>(group.size());
+        for (Mutation mutation : group) {
+            writes.add(mutation.write);
+        }
+        int[] written = new int[1];
+        try {
+            this.retryPolicy.run(attempt -> this.bulkWrite(writes, attempt, written));
+        } catch (RuntimeException e) {
+            log.warn("write-behind group of {} mutations failed", group.size(), e);
+            this.fail(e);
+            this.durable(group.subList(0, written[0]));
+            if (this.onFailure != null) {
+                this.callback(this.onFailure);
+            }
+            this.notifyListener(group.size(), e);
+            return;
+        }
+        this.durable(group);
+        this.notifyListener(group.size(), null);
+    }
+
+    private void durable(List<Mutation> mutations) {
+        for (Mutation mutation : mutations) {
+            if (mutation.onDurable != null) {
+                this.callback(mutation.onDurable);
+            }
+        }
+    }
+
+    private void callback(Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            log.warn("write-behind callback failed", e);
+            this.fail(e);
+        }
+    }
+
+    /**
+     * Writes the group in order. On a retry, an insert failing on a duplicate _id was
+     * stored by the earlier attempt, so the group carries on after it.
+     *
+     * @param written the number of leading writes known to be applied, raised as the
+     *                write errors of the ordered bulk writes reveal it.
+     */
+    private void bulkWrite(List<WriteModel<RawBsonDocument>> writes, int attempt, int[] written) {
+        int from = written[0];
+        while (from < writes.size()) {
+            try {
+                this.collection.bulkWrite(writes.subList(from, writes.size()), new BulkWriteOptions().ordered(true));
+                written[0] = writes.size();
+                return;
+            } catch (MongoBulkWriteException e) {
+                if (e.getWriteErrors().isEmpty()) {
+                    throw e;
+                }
+                // An ordered bulk write applies every write before the first error.
+                written[0] = from + e.getWriteErrors().get(0).getIndex();
+                if (attempt == 1 || !ChunkedInserter.onlyIdDuplicates(e)) {
+                    throw e;
+                }
+                // The duplicate was stored by the earlier attempt.
+                from = ++written[0];
+            }
+        }
+    }
+
+    private void fail(RuntimeException e) {
+        synchronized (this.lock) {
+            if (this.failure == null) {
+                this.failure = e;
+            } else {
+                this.failure.addSuppressed(e);
+            }
+        }
+    }
+
+    private void notifyListener(int size, Throwable error) {
+        if (this.listener == null) return;
+        try {
+            this.listener.accept(size, error);
+        } catch (RuntimeException e) {
+            log.warn("write-behind listener failed", e);
+        }
+    }
+
+    private void cancelLinger() {
+        if (this.linger != null) {
+            this.linger.cancel(false);
+            this.linger = null;
+        }
+    }
+
+    private static class Mutation {
+        private final WriteModel<RawBsonDocument> write;
+        private final Runnable onDurable;
+
+        Mutation(WriteModel<RawBsonDocument> write, Runnable onDurable) {
+            this.write = write;
+            this.onDurable = onDurable;
+        }
+    }
+}
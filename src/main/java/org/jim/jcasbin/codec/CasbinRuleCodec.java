@@ -0,0 +1,127 @@
+package org.jim.jcasbin.codec;
+
+import org.bson.BsonObjectId;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+import org.jim.jcasbin.domain.CasbinRule;
+
+/**
+ * CasbinRuleCodec is a hand-written codec for {@link CasbinRule}.
+ * It reads and writes {@code _id}, {@code ptype} and {@code v0..v5} directly,
+ * without the reflective property access of the automatic POJO codec.
+ * Unknown fields and values of unexpected types are skipped.
+ * <p>
+ * When given a {@link StringInterner}, decoded field values are canonicalized
+ * so that values repeated across rules share one instance.
+ */
+public class CasbinRuleCodec implements CollectibleCodec<CasbinRule> {
+    private static final String ID_FIELD = "_id";
+
+    private final StringInterner interner;
+
+    public CasbinRuleCodec() {
+        this(null);
+    }
+
+    public CasbinRuleCodec(StringInterner interner) {
+        this.interner = interner;
+    }
+
+    @Override
+    public CasbinRule decode(BsonReader reader, DecoderContext decoderContext) {
+        CasbinRule casbinRule = new CasbinRule();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            BsonType type = reader.getCurrentBsonType();
+            if (ID_FIELD.equals(name)) {
+                if (type == BsonType.OBJECT_ID) {
+                    casbinRule.setId(reader.readObjectId());
+                } else {
+                    reader.skipValue();
+                }
+                continue;
+            }
+            int index = fieldIndex(name);
+            if (index < 0 || type != BsonType.STRING) {
+                reader.skipValue();
+                continue;
+            }
+            String value = reader.readString();
+            casbinRule.setByIndex(index, interner == null ? value : interner.intern(value));
+        }
+        reader.readEndDocument();
+        return casbinRule;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, CasbinRule casbinRule, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if (casbinRule.getId() != null) {
+            writer.writeObjectId(ID_FIELD, casbinRule.getId());
+        }
+        writeString(writer, "ptype", casbinRule.getPtype());
+        writeString(writer, "v0", casbinRule.getV0());
+        writeString(writer, "v1", casbinRule.getV1());
+        writeString(writer, "v2", casbinRule.getV2());
+        writeString(writer, "v3", casbinRule.getV3());
+        writeString(writer, "v4", casbinRule.getV4());
+        writeString(writer, "v5", casbinRule.getV5());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<CasbinRule> getEncoderClass() {
+        return CasbinRule.class;
+    }
+
+    @Override
+    public CasbinRule generateIdIfAbsentFromDocument(CasbinRule casbinRule) {
+        if (casbinRule.getId() == null) {
+            casbinRule.setId(new ObjectId());
+        }
+        return casbinRule;
+    }
+
+    @Override
+    public boolean documentHasId(CasbinRule casbinRule) {
+        return casbinRule.getId() != null;
+    }
+
+    @Override
+    public BsonValue getDocumentId(CasbinRule casbinRule) {
+        if (casbinRule.getId() == null) {
+            throw new IllegalStateException("The casbin rule does not contain an _id");
+        }
+        return new BsonObjectId(casbinRule.getId());
+    }
+
+    /**
+     * Maps a field name to its {@link CasbinRule#setByIndex} position,
+     * or -1 for fields the codec does not know about.
+     */
+    private static int fieldIndex(String name) {
+        if ("ptype".equals(name)) {
+            return 0;
+        }
+        if (name.length() == 2 && name.charAt(0) == 'v') {
+            int i = name.charAt(1) - '0';
+            if (i >= 0 && i <= 5) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeString(BsonWriter writer, String name, String value) {
+        if (value != null) {
+            writer.writeString(name, value);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.jim.jcasbin.codec;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * StringInterner canonicalizes the field values decoded during a load, so that
+ * the subjects, domains and actions repeated across many rules share one instance.
+ * <p>
+ * The dictionary is bounded: once it holds {@code maxSize} values, new values are
+ * returned as they are. A weak interner does not keep its values alive by itself.
+ * Interners are safe to share between the threads of a parallel load.
+ */
+public abstract class StringInterner {
+    protected final int maxSize;
+
+    protected StringInterner(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public static StringInterner bounded(int maxSize) {
+        return new Strong(maxSize);
+    }
+
+    public static StringInterner weak(int maxSize) {
+        return new Weak(maxSize);
+    }
+
+    /**
+     * Returns the canonical instance equal to the value.
+     */
+    public abstract String intern(String value);
+
+    private static class Strong extends StringInterner {
+        private final Map<String, String> values = new ConcurrentHashMap<>();
+
+        Strong(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        public String intern(String value) {
+            String canonical = values.get(value);
+            if (canonical != null) {
+                return canonical;
+            }
+            if (values.size() >= maxSize) {
+                return value;
+            }
+            canonical = values.putIfAbsent(value, value);
+            return canonical == null ? value : canonical;
+        }
+    }
+
+    private static class Weak extends StringInterner {
+        private final Map<String, WeakReference<String>> values = new WeakHashMap<>();
+
+        Weak(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        public String intern(String value) {
+            synchronized (values) {
+                WeakReference<String> reference = values.get(value);
+                String canonical = reference == null ? null : reference.get();
+                if (canonical != null) {
+                    return canonical;
+                }
+                if (values.size() < maxSize) {
+                    values.put(value, new WeakReference<>(value));
+                }
+                return value;
+            }
+        }
+    }
+}
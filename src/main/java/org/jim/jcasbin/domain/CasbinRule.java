@@ -4,12 +4,13 @@ import lombok.Data;
 import lombok.Getter;
 import lombok.Setter;
 import org.bson.types.ObjectId;
+import org.casbin.jcasbin.model.Assertion;
 import org.casbin.jcasbin.model.Model;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.NoSuchElementException;
 
 
 /**
@@ -64,6 +65,40 @@ public class CasbinRule {
         return str != null && !str.isEmpty();
     }
 
+    /**
+     * Normalizes empty fields to null, so that rules stored with "" padding
+     * equal the rules converted from a model.
+     */
+    public static CasbinRule canonical(CasbinRule casbinRule) {
+        for (int i = 0; i <= 6; i++) {
+            if ("".equals(casbinRule.getByIndex(i))) {
+                casbinRule.setByIndex(i, null);
+            }
+        }
+        return casbinRule;
+    }
+
+    public String getByIndex(int i) {
+        switch (i) {
+            case 0:
+                return this.ptype;
+            case 1:
+                return this.v0;
+            case 2:
+                return this.v1;
+            case 3:
+                return this.v2;
+            case 4:
+                return this.v3;
+            case 5:
+                return this.v4;
+            case 6:
+                return this.v5;
+            default:
+                return null;
+        }
+    }
+
     public void setByIndex(int i, String data) {
         switch (i) {
             case 0:
@@ -116,35 +151,127 @@ public class CasbinRule {
         return policy;
     }
 
+    /**
+     * Converts this rule into a policy without the policy type,
+     * as stored in {@code Assertion.policy}.
+     */
+    public ArrayList<String> toRule() {
+        ArrayList<String> rule = new ArrayList<>(6);
+        if (hasText(v0)) {
+            rule.add(v0);
+        }
+        if (hasText(v1)) {
+            rule.add(v1);
+        }
+        if (hasText(v2)) {
+            rule.add(v2);
+        }
+        if (hasText(v3)) {
+            rule.add(v3);
+        }
+        if (hasText(v4)) {
+            rule.add(v4);
+        }
+        if (hasText(v5)) {
+            rule.add(v5);
+        }
+        return rule;
+    }
+
     /**
      * Converts the model into CasbinRule.
      * The conversion process will merge duplicate data.
      */
     public static List<CasbinRule> transformToCasbinRule(Model model) {
-        Set<CasbinRule> casbinRules = new HashSet<>();
-        model.model.values().forEach(x -> x.values().forEach(y -> y.policy.forEach(z -> {
-            if (z.isEmpty()) return;
-            int size = z.size();
-            CasbinRule casbinRule = new CasbinRule();
-            casbinRule.setPtype(y.key);
-            casbinRule.setV0(z.get(0));
-            if (size >= 2) {
-                casbinRule.setV1(z.get(1));
-            }
-            if (size >= 3) {
-                casbinRule.setV2(z.get(2));
-            }
-            if (size >= 4) {
-                casbinRule.setV3(z.get(3));
-            }
-            if (size >= 5) {
-                casbinRule.setV4(z.get(4));
+        return transformToCasbinRule(model, null);
+    }
+
+    /**
+     * Converts the model into CasbinRule, feeding every distinct rule to the digest.
+     * The conversion process will merge duplicate data.
+     */
+    public static List<CasbinRule> transformToCasbinRule(Model model, PolicyDigest digest) {
+        List<CasbinRule> casbinRules = new ArrayList<>();
+        iterateCasbinRules(model, digest).forEachRemaining(casbinRules::add);
+        return casbinRules;
+    }
+
+    /**
+     * Converts the model into CasbinRule lazily, one rule per {@code next()}.
+     * Duplicates are merged by remembering a 128-bit hash of every rule seen,
+     * so no converted rule is retained by the iterator itself.
+     *
+     * @param model  the model.
+     * @param digest the digest fed with every distinct rule, or null.
+     */
+    public static Iterator<CasbinRule> iterateCasbinRules(Model model, PolicyDigest digest) {
+        List<Assertion> assertions = new ArrayList<>();
+        model.model.values().forEach(x -> assertions.addAll(x.values()));
+        PolicyDigest hasher = digest != null ? digest : new PolicyDigest();
+        RuleHashSet seen = new RuleHashSet();
+
+        return new Iterator<CasbinRule>() {
+            private int assertionIndex;
+            private int policyIndex;
+            private CasbinRule next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && assertionIndex < assertions.size()) {
+                    Assertion assertion = assertions.get(assertionIndex);
+                    if (policyIndex >= assertion.policy.size()) {
+                        assertionIndex++;
+                        policyIndex = 0;
+                        continue;
+                    }
+                    List<String> rule = assertion.policy.get(policyIndex++);
+                    if (rule.isEmpty()) {
+                        continue;
+                    }
+                    CasbinRule casbinRule = canonical(fromPolicy(assertion.key, rule));
+                    long[] hash = hasher.hash(casbinRule);
+                    if (seen.add(hash[0], hash[1])) {
+                        if (digest != null) {
+                            digest.update(hash);
+                        }
+                        next = casbinRule;
+                    }
+                }
+                return next != null;
             }
-            if (size >= 6) {
-                casbinRule.setV5(z.get(5));
+
+            @Override
+            public CasbinRule next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                CasbinRule casbinRule = next;
+                next = null;
+                return casbinRule;
             }
-            casbinRules.add(casbinRule);
-        })));
-        return new ArrayList<>(casbinRules);
+        };
+    }
+
+    private static CasbinRule fromPolicy(String ptype, List<String> rule) {
+        int size = rule.size();
+        CasbinRule casbinRule = new CasbinRule();
+        casbinRule.setPtype(ptype);
+        casbinRule.setV0(rule.get(0));
+        if (size >= 2) {
+            casbinRule.setV1(rule.get(1));
+        }
+        if (size >= 3) {
+            casbinRule.setV2(rule.get(2));
+        }
+        if (size >= 4) {
+            casbinRule.setV3(rule.get(3));
+        }
+        if (size >= 5) {
+            casbinRule.setV4(rule.get(4));
+        }
+        if (size >= 6) {
+            casbinRule.setV5(rule.get(5));
+        }
+        return casbinRule;
     }
 }
@@ -0,0 +1,70 @@
+package org.jim.jcasbin.domain;
+
+import org.casbin.jcasbin.model.Model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * PolicyDigest is a content digest of a set of rules.
+ * <p>
+ * Every rule is hashed with SHA-256 and the hashes are summed, so the digest does
+ * not depend on the order of the rules. It must be fed each distinct rule once,
+ * which {@link CasbinRule#iterateCasbinRules(Model, PolicyDigest)} takes care of.
+ */
+public class PolicyDigest {
+    private final MessageDigest sha256;
+    private long high;
+    private long low;
+    private long count;
+
+    public PolicyDigest() {
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Computes the digest of the policy held by the model.
+     */
+    public static String of(Model model) {
+        PolicyDigest digest = new PolicyDigest();
+        CasbinRule.iterateCasbinRules(model, digest).forEachRemaining(casbinRule -> {
+        });
+        return digest.toString();
+    }
+
+    public void update(CasbinRule casbinRule) {
+        update(hash(casbinRule));
+    }
+
+    void update(long[] hash) {
+        this.high += hash[0];
+        this.low += hash[1];
+        this.count++;
+    }
+
+    /**
+     * Returns the first 128 bits of the SHA-256 hash of the canonical rule.
+     */
+    long[] hash(CasbinRule casbinRule) {
+        for (int i = 0; i <= 6; i++) {
+            String value = casbinRule.getByIndex(i);
+            if (CasbinRule.hasText(value)) {
+                this.sha256.update(value.getBytes(StandardCharsets.UTF_8));
+            }
+            this.sha256.update((byte) 0);
+        }
+        ByteBuffer hash = ByteBuffer.wrap(this.sha256.digest());
+        return new long[]{hash.getLong(), hash.getLong()};
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x-%d", this.high, this.low, this.count);
+    }
+}
@@ -0,0 +1,61 @@
+package org.jim.jcasbin.domain;
+
+/**
+ * RuleHashSet remembers the 128-bit hashes of the rules seen so far in a flat
+ * open-addressing table of longs. Deduplicating a policy then costs a few dozen
+ * bytes per rule instead of a retained {@link CasbinRule} per rule.
+ */
+class RuleHashSet {
+    private long[] table = new long[2 * 1024];
+    private int size;
+    private boolean containsZero;
+
+    /**
+     * Adds the hash.
+     *
+     * @return true if the hash was not present yet.
+     */
+    boolean add(long high, long low) {
+        if (high == 0 && low == 0) {
+            boolean added = !containsZero;
+            containsZero = true;
+            return added;
+        }
+        if ((size + 1) * 4L > table.length) {
+            resize();
+        }
+        if (!insert(table, high, low)) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    private static boolean insert(long[] table, long high, long low) {
+        int mask = table.length / 2 - 1;
+        int slot = (int) (low ^ (low >>> 32)) & mask;
+        while (true) {
+            long h = table[2 * slot];
+            long l = table[2 * slot + 1];
+            if (h == 0 && l == 0) {
+                table[2 * slot] = high;
+                table[2 * slot + 1] = low;
+                return true;
+            }
+            if (h == high && l == low) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void resize() {
+        long[] resized = new long[table.length * 2];
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != 0 || table[i + 1] != 0) {
+                insert(resized, table[i], table[i + 1]);
+            }
+        }
+        table = resized;
+    }
+}
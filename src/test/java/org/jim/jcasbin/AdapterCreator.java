@@ -2,10 +2,18 @@ package org.jim.jcasbin;
 
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import de.flapdoodle.embed.mongo.commands.MongodArguments;
 import de.flapdoodle.embed.mongo.commands.ServerAddress;
+import de.flapdoodle.embed.mongo.config.Storage;
 import de.flapdoodle.embed.mongo.transitions.Mongod;
 import de.flapdoodle.embed.mongo.transitions.RunningMongodProcess;
 import de.flapdoodle.reverse.TransitionWalker;
+import de.flapdoodle.reverse.transitions.Start;
+import org.bson.Document;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
 
 import static de.flapdoodle.embed.mongo.distribution.Version.Main.V6_0;
 
@@ -22,20 +30,73 @@ public interface AdapterCreator {
     void close();
 
     class MongoAdapterCreator implements AdapterCreator, AutoCloseable {
+        private static final String REPLICA_SET = "rs0";
+        // Servers and clients started so far, closed in reverse order.
+        private final Deque<AutoCloseable> resources = new ArrayDeque<>();
         MongoClient mongoClient = null;
 
         @Override
         public MongoAdapter create() {
-            TransitionWalker.ReachedState<RunningMongodProcess> running = Mongod.instance().start(V6_0);
-            ServerAddress serverAddress = running.current().getServerAddress();
-            MongoClient mongoClient = MongoClients.create("mongodb://" + serverAddress);
-            return new MongoAdapter(mongoClient, "zhangji");
+            return create(null);
+        }
+
+        public MongoAdapter create(MongoAdapterOptions options) {
+            ServerAddress serverAddress = this.start(Mongod.instance());
+            this.mongoClient = this.register(MongoClients.create("mongodb://" + serverAddress));
+            return new MongoAdapter(this.mongoClient, "zhangji", null, options);
+        }
+
+        /**
+         * Creates an adapter on a single-node replica set, which supports transactions.
+         */
+        public MongoAdapter createReplicaSet(MongoAdapterOptions options) {
+            ServerAddress serverAddress = this.start(Mongod.instance()
+                    .withMongodArguments(Start.to(MongodArguments.class).initializedWith(MongodArguments.defaults()
+                            .withReplication(Storage.of(REPLICA_SET, 0)))));
+            try (MongoClient direct = MongoClients.create("mongodb://" + serverAddress + "/?directConnection=true")) {
+                direct.getDatabase("admin").runCommand(new Document("replSetInitiate", new Document("_id", REPLICA_SET)
+                        .append("members", Collections.singletonList(new Document("_id", 0)
+                                .append("host", serverAddress.toString())))));
+            }
+            // Server selection waits for the node to become primary.
+            this.mongoClient = this.register(MongoClients.create("mongodb://" + serverAddress + "/?replicaSet=" + REPLICA_SET));
+            return new MongoAdapter(this.mongoClient, "zhangji", null, options);
+        }
+
+        public AsyncMongoAdapter createAsync(MongoAdapterOptions options) {
+            ServerAddress serverAddress = this.start(Mongod.instance());
+            com.mongodb.reactivestreams.client.MongoClient mongoClient = this.register(
+                    com.mongodb.reactivestreams.client.MongoClients.create("mongodb://" + serverAddress));
+            return new AsyncMongoAdapter(mongoClient, "zhangji", null, options);
+        }
+
+        private ServerAddress start(Mongod mongod) {
+            TransitionWalker.ReachedState<RunningMongodProcess> running = this.register(mongod.start(V6_0));
+            return running.current().getServerAddress();
+        }
+
+        private <T extends AutoCloseable> T register(T resource) {
+            this.resources.push(resource);
+            return resource;
         }
 
         @Override
         public void close() {
-            if (mongoClient != null) {
-                mongoClient.close();
+            RuntimeException failure = null;
+            while (!this.resources.isEmpty()) {
+                try {
+                    this.resources.pop().close();
+                } catch (Exception e) {
+                    if (failure == null) {
+                        failure = new IllegalStateException("failed to stop the test servers", e);
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            this.mongoClient = null;
+            if (failure != null) {
+                throw failure;
             }
         }
     }
@@ -0,0 +1,36 @@
+package org.jim.jcasbin;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IndexManagerTest {
+    private static MongoCommandException failure(int code) {
+        return new MongoCommandException(new BsonDocument("ok", new BsonInt32(0))
+                .append("code", new BsonInt32(code))
+                .append("errmsg", new BsonString("createIndexes failed")), new ServerAddress());
+    }
+
+    @Test
+    public void testToleratesMissingPrivilegeAndConflicts() {
+        IndexManager indexManager = new IndexManager(MongoAdapterOptions.builder().build());
+        assertTrue(indexManager.isTolerable(failure(13)));
+        assertTrue(indexManager.isTolerable(failure(85)));
+        assertTrue(indexManager.isTolerable(failure(86)));
+        assertFalse(indexManager.isTolerable(failure(11000)));
+        assertFalse(indexManager.isTolerable(new MongoException("boom")));
+    }
+
+    @Test
+    public void testUniqueIndexIsRequired() {
+        IndexManager indexManager = new IndexManager(MongoAdapterOptions.builder().ignoreDuplicates(true).build());
+        assertFalse(indexManager.isTolerable(failure(85)));
+    }
+}
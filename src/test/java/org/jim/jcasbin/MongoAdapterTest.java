@@ -1,9 +1,16 @@
 package org.jim.jcasbin;
 
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
 import org.junit.Test;
 
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Created with IntelliJ IDEA.
@@ -18,6 +25,21 @@ public class MongoAdapterTest {
             MongoAdapterTestSets.testAdapter(a);
             MongoAdapterTestSets.testAddAndRemovePolicy(a);
             MongoAdapterTestSets.testBatchAddAndRemovePolicies(a);
+            MongoAdapterTestSets.testLoadFilteredPolicy(a);
+            MongoAdapterTestSets.testRemoveFilteredPolicy(a);
+            if (a.getOptions().isChangeLog()) {
+                MongoAdapterTestSets.testLoadIncrementalPolicy(a);
+            }
+            if (a.getOptions().isIgnoreDuplicates()) {
+                MongoAdapterTestSets.testIgnoreDuplicates(a);
+            }
+            if (a.getOptions().isSkipUnchangedSave()) {
+                MongoAdapterTestSets.testSkipUnchangedSave(a);
+            }
+            if (a.getOptions().isWriteBehind()) {
+                MongoAdapterTestSets.testWriteBehind(a);
+            }
+            a.close();
         }
     }
 
@@ -27,7 +49,89 @@ public class MongoAdapterTest {
 
         try (AdapterCreator.MongoAdapterCreator creator = new AdapterCreator.MongoAdapterCreator()) {
             adapters.add(creator.create());
+            MongoAdapter shadow = creator.create(MongoAdapterOptions.builder()
+                    .coveringIndex(true)
+                    .saveMode(MongoAdapterOptions.SaveMode.SHADOW)
+                    .build());
+            MongoAdapterTestSets.testShadowSaveKeepsIndexes(shadow, creator.mongoClient
+                    .getDatabase("zhangji")
+                    .getCollection(MongoAdapter.DEFAULT_COL_NAME));
+            adapters.add(shadow);
+            adapters.add(creator.create(MongoAdapterOptions.builder()
+                    .loadParallelism(4)
+                    .internStrings(10_000)
+                    .insertBatchSize(2)
+                    .insertBatchBytes(4096)
+                    .writeParallelism(4)
+                    .ignoreDuplicates(true)
+                    .deduplication(MongoAdapterOptions.Deduplication.NONE)
+                    .extraIndex(new IndexModel(Indexes.ascending("v0")))
+                    .build()));
+            adapters.add(creator.create(MongoAdapterOptions.builder()
+                    .deduplication(MongoAdapterOptions.Deduplication.SERVER)
+                    .saveMode(MongoAdapterOptions.SaveMode.DIFF)
+                    .build()));
+            adapters.add(creator.create(MongoAdapterOptions.builder()
+                    .batchSize(1000)
+                    .maxTimeMS(10_000)
+                    .readPreference(ReadPreference.secondaryPreferred())
+                    .readConcern(ReadConcern.LOCAL)
+                    .writeConcern(MongoAdapterOptions.Operation.SAVE, WriteConcern.W1.withJournal(false))
+                    .writeConcern(MongoAdapterOptions.Operation.ADD, WriteConcern.MAJORITY)
+                    .readConcern(MongoAdapterOptions.Operation.LOAD, ReadConcern.MAJORITY)
+                    .retryPolicy(RetryPolicy.defaults())
+                    .build()));
+            adapters.add(creator.create(MongoAdapterOptions.builder()
+                    .changeLog(true)
+                    .transactional(true)
+                    .writeConcern(MongoAdapterOptions.Operation.BATCH, WriteConcern.MAJORITY)
+                    .build()));
+            adapters.add(creator.create(MongoAdapterOptions.builder()
+                    .snapshotPath(Paths.get(System.getProperty("java.io.tmpdir"), "casbin-" + UUID.randomUUID() + ".snapshot"))
+                    .skipUnchangedSave(true)
+                    .build()));
+            adapters.add(creator.create(MongoAdapterOptions.builder()
+                    .writeBehind(true)
+                    .writeBehindBatchSize(3)
+                    .writeBehindLingerMS(5)
+                    .retryPolicy(RetryPolicy.defaults())
+                    .changeLog(true)
+                    .skipUnchangedSave(true)
+                    .build()));
             testAdapter(adapters);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testTransactionalMongoAdapter() {
+        List<MongoAdapter> adapters = new ArrayList<>();
+
+        try (AdapterCreator.MongoAdapterCreator creator = new AdapterCreator.MongoAdapterCreator()) {
+            adapters.add(creator.createReplicaSet(MongoAdapterOptions.builder()
+                    .transactional(true)
+                    .changeLog(true)
+                    .insertBatchSize(2)
+                    .writeConcern(MongoAdapterOptions.Operation.BATCH, WriteConcern.MAJORITY)
+                    .build()));
+            adapters.add(creator.createReplicaSet(MongoAdapterOptions.builder()
+                    .transactional(true)
+                    .saveMode(MongoAdapterOptions.SaveMode.DIFF)
+                    .build()));
+            testAdapter(adapters);
+        }
+    }
+
+    @Test
+    public void testAsyncMongoAdapter() {
+        try (AdapterCreator.MongoAdapterCreator creator = new AdapterCreator.MongoAdapterCreator()) {
+            AsyncMongoAdapter a = creator.createAsync(MongoAdapterOptions.builder()
+                    .batchSize(2)
+                    .insertBatchSize(2)
+                    .writeParallelism(2)
+                    .build());
+            MongoAdapterTestSets.testAdapter(a);
+            MongoAdapterTestSets.testAddAndRemovePolicy(a);
+            MongoAdapterTestSets.testAsyncAdapter(a);
+        }
+    }
+}
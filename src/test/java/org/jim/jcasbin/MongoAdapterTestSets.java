@@ -1,16 +1,29 @@
 package org.jim.jcasbin;
 
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CollationStrength;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import org.bson.Document;
 import org.casbin.jcasbin.main.Enforcer;
+import org.casbin.jcasbin.model.Model;
 import org.casbin.jcasbin.persist.Adapter;
+import org.casbin.jcasbin.persist.file_adapter.FilteredAdapter;
 import org.casbin.jcasbin.util.Util;
+import org.jim.jcasbin.domain.CasbinRule;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -154,4 +167,194 @@ public class MongoAdapterTestSets {
         testEnforce(e, "cathy", "data1", "read", false);
         testEnforce(e, "jane", "data2", "read", false);
     }
+
+    static void testLoadFilteredPolicy(MongoAdapter a) {
+        Enforcer e = new Enforcer("examples/rbac_with_domains_model.conf", "examples/rbac_with_domains_policy.csv");
+        a.savePolicy(e.getModel());
+
+        e.clearPolicy();
+        a.loadFilteredPolicy(e.getModel(), new PolicyFilter()
+                .add("p", "", "domain1")
+                .add("g", "", "", "domain1"));
+        assertTrue(a.isFiltered());
+        testGetPolicy(e, asList(
+                asList("admin", "domain1", "data1", "read"),
+                asList("admin", "domain1", "data1", "write")));
+        assertEquals(Collections.singletonList(asList("alice", "admin", "domain1")), e.getGroupingPolicy());
+
+        e.clearPolicy();
+        a.loadPolicy(e.getModel());
+        assertFalse(a.isFiltered());
+        assertEquals(4, e.getPolicy().size());
+        assertEquals(2, e.getGroupingPolicy().size());
+
+        // The file adapter filter narrows p and g only, other types are loaded in full.
+        Model model = Model.newModelFromFile("examples/rbac_with_domains_model.conf");
+        model.addDef("g", "g2", "_, _");
+        model.addPolicy("g", "g", asList("alice", "admin", "domain1"));
+        model.addPolicy("g", "g", asList("bob", "admin", "domain2"));
+        model.addPolicy("g", "g2", asList("data1", "data_group"));
+        a.savePolicy(model);
+        model.clearPolicy();
+        FilteredAdapter.Filter filter = new FilteredAdapter.Filter();
+        filter.g = new String[]{"", "", "domain1"};
+        a.loadFilteredPolicy(model, filter);
+        assertEquals(Collections.singletonList(asList("alice", "admin", "domain1")), model.getPolicy("g", "g"));
+        assertEquals(Collections.singletonList(asList("data1", "data_group")), model.getPolicy("g", "g2"));
+    }
+
+    static void testRemoveFilteredPolicy(MongoAdapter a) {
+        Enforcer e = new Enforcer("examples/rbac_model.conf", "examples/rbac_policy.csv");
+        a.savePolicy(e.getModel());
+
+        // Every matching rule is removed, not only the first one.
+        assertEquals(2, a.deleteFilteredPolicy("p", "p", 0, "data2_admin"));
+        assertEquals(0, a.deleteFilteredPolicy("p", "p", 0, "data2_admin"));
+        a.removeFilteredPolicy("p", "p", 1, "data2");
+
+        // Removing a role removes its grants, filtered from the second field.
+        assertEquals(1, a.deleteFilteredPolicy("g", "g", 1, "data2_admin"));
+
+        e = new Enforcer("examples/rbac_model.conf", a);
+        testGetPolicy(e, Collections.singletonList(asList("alice", "data1", "read")));
+        assertTrue(e.getGroupingPolicy().isEmpty());
+    }
+
+    static void testShadowSaveKeepsIndexes(MongoAdapter a, MongoCollection<Document> collection) {
+        collection.createIndex(Indexes.ascending("v1"), new IndexOptions()
+                .name("v1_ci")
+                .collation(Collation.builder()
+                        .locale("en")
+                        .collationStrength(CollationStrength.SECONDARY)
+                        .build()));
+        Enforcer e = new Enforcer("examples/rbac_model.conf", "examples/rbac_policy.csv");
+        a.savePolicy(e.getModel());
+
+        // The index is rebuilt on the shadow with its collation.
+        Document copied = null;
+        for (Document index : collection.listIndexes()) {
+            if ("v1_ci".equals(index.getString("name"))) {
+                copied = index;
+            }
+        }
+        assertNotNull(copied);
+        Document collation = copied.get("collation", Document.class);
+        assertEquals("en", collation.getString("locale"));
+        assertEquals(2, collation.getInteger("strength").intValue());
+    }
+
+    static void testLoadIncrementalPolicy(MongoAdapter a) {
+        Enforcer e = new Enforcer("examples/rbac_model.conf", "examples/rbac_policy.csv");
+        a.savePolicy(e.getModel());
+
+        Model model = Model.newModelFromFile("examples/rbac_model.conf");
+        a.loadPolicy(model);
+        assertTrue(a.loadIncrementalPolicy(model));
+
+        a.addPolicy("p", "p", asList("cathy", "data1", "read"));
+        a.addPolicies("p", "p", asList(asList("jane", "data2", "read"), asList("jane", "data2", "write")));
+        a.removePolicy("p", "p", asList("bob", "data2", "write"));
+        assertTrue(a.loadIncrementalPolicy(model));
+        assertTrue(model.hasPolicy("p", "p", asList("cathy", "data1", "read")));
+        assertTrue(model.hasPolicy("p", "p", asList("jane", "data2", "write")));
+        assertFalse(model.hasPolicy("p", "p", asList("bob", "data2", "write")));
+
+        a.removeFilteredPolicy("p", "p", 0, "jane");
+        assertTrue(a.loadIncrementalPolicy(model));
+        assertFalse(model.hasPolicy("p", "p", asList("jane", "data2", "read")));
+        assertEquals(4, model.getPolicy("p", "p").size());
+
+        // Saving the whole policy forces a full reload.
+        a.savePolicy(e.getModel());
+        assertFalse(a.loadIncrementalPolicy(model));
+        assertEquals(4, model.getPolicy("p", "p").size());
+        assertTrue(model.hasPolicy("p", "p", asList("bob", "data2", "write")));
+
+        // A save inside the replay window hides the writes made before it.
+        a.addPolicy("p", "p", asList("cathy", "data1", "read"));
+        a.savePolicy(e.getModel());
+        a.loadPolicy(model);
+        assertTrue(a.loadIncrementalPolicy(model));
+        assertFalse(model.hasPolicy("p", "p", asList("cathy", "data1", "read")));
+        assertEquals(4, model.getPolicy("p", "p").size());
+    }
+
+    static void testSkipUnchangedSave(MongoAdapter a) {
+        Enforcer e = new Enforcer("examples/rbac_model.conf", "examples/rbac_policy.csv");
+        a.savePolicy(e.getModel());
+        assertTrue(a.isPolicyCurrent(e.getModel()));
+
+        // Another write invalidates the stored digest.
+        a.addPolicy("p", "p", asList("cathy", "data1", "read"));
+        assertFalse(a.isPolicyCurrent(e.getModel()));
+
+        a.savePolicy(e.getModel());
+        assertTrue(a.isPolicyCurrent(e.getModel()));
+        e = new Enforcer("examples/rbac_model.conf", a);
+        testEnforce(e, "cathy", "data1", "read", false);
+
+        // Saving the same policy again is a no-op.
+        a.savePolicy(e.getModel());
+        assertTrue(a.isPolicyCurrent(e.getModel()));
+    }
+
+    static void testIgnoreDuplicates(MongoAdapter a) {
+        Enforcer e = new Enforcer("examples/rbac_model.conf", "examples/rbac_policy.csv");
+        a.savePolicy(e.getModel());
+
+        // Retried adds of stored rules are no-ops.
+        a.addPolicy("p", "p", asList("alice", "data1", "read"));
+        a.addPolicies("p", "p", asList(asList("alice", "data1", "read"), asList("cathy", "data1", "read")));
+        a.addPolicies("p", "p", asList(asList("cathy", "data1", "read"), asList("cathy", "data1", "read")));
+
+        e = new Enforcer("examples/rbac_model.conf", a);
+        assertEquals(5, e.getPolicy().size());
+        testEnforce(e, "cathy", "data1", "read", true);
+    }
+
+    static void testWriteBehind(MongoAdapter a) {
+        Enforcer e = new Enforcer("examples/rbac_model.conf", "examples/rbac_policy.csv");
+        a.savePolicy(e.getModel());
+
+        // Writes are queued in order, so the remove is applied after the first add.
+        a.addPolicy("p", "p", asList("cathy", "data1", "read"));
+        a.removePolicy("p", "p", asList("cathy", "data1", "read"));
+        a.addPolicies("p", "p", asList(asList("jane", "data2", "read"), asList("jane", "data2", "write")));
+        a.removeFilteredPolicy("p", "p", 0, "bob");
+        a.flush().join();
+
+        e = new Enforcer("examples/rbac_model.conf", a);
+        testEnforce(e, "cathy", "data1", "read", false);
+        testEnforce(e, "jane", "data2", "write", true);
+        testEnforce(e, "bob", "data2", "write", false);
+        assertEquals(5, e.getPolicy().size());
+    }
+
+    static void testAsyncAdapter(AsyncMongoAdapter a) {
+        Enforcer e = new Enforcer("examples/rbac_model.conf", "examples/rbac_policy.csv");
+        a.savePolicyAsync(e.getModel()).join();
+
+        CompletableFuture.allOf(
+                a.addPolicyAsync("p", "p", asList("cathy", "data1", "read")),
+                a.addPoliciesAsync("p", "p", asList(asList("jane", "data2", "read"), asList("jane", "data2", "write"))))
+                .join();
+        a.removePolicyAsync("p", "p", asList("jane", "data2", "write")).join();
+        assertEquals(2L, (long) a.removeFilteredPolicyAsync("p", "p", 0, "data2_admin").join());
+
+        Model model = Model.newModelFromFile("examples/rbac_model.conf");
+        a.loadPolicyAsync(model).join();
+        assertEquals(4, model.getPolicy("p", "p").size());
+        assertTrue(model.hasPolicy("p", "p", asList("cathy", "data1", "read")));
+        assertFalse(model.hasPolicy("p", "p", asList("jane", "data2", "write")));
+
+        model = Model.newModelFromFile("examples/rbac_model.conf");
+        a.loadFilteredPolicyAsync(model, new PolicyFilter().add("p", "jane")).join();
+        assertTrue(a.isFiltered());
+        assertEquals(Collections.singletonList(asList("jane", "data2", "read")), model.getPolicy("p", "p"));
+
+        List<CasbinRule> rules = new ArrayList<>();
+        Publishers.forEach(a.findPolicy(Filters.eq("ptype", "g")), 1, rules::add).join();
+        assertEquals(1, rules.size());
+        assertEquals(asList("alice", "data2_admin"), rules.get(0).toRule());
+    }
 }
@@ -0,0 +1,50 @@
+package org.jim.jcasbin;
+
+import org.casbin.jcasbin.model.Model;
+import org.casbin.jcasbin.persist.file_adapter.FileAdapter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PolicySnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Model newModel() {
+        return Model.newModelFromFile("examples/rbac_with_domains_model.conf");
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        Model model = newModel();
+        new FileAdapter("examples/rbac_with_domains_policy.csv").loadPolicy(model);
+        PolicySnapshot snapshot = new PolicySnapshot(folder.newFolder().toPath().resolve("policy.snapshot"));
+        snapshot.save(model, 3);
+
+        Model loaded = newModel();
+        assertTrue(snapshot.load(loaded, 3));
+        assertEquals(model.getPolicy("p", "p"), loaded.getPolicy("p", "p"));
+        assertEquals(model.getPolicy("g", "g"), loaded.getPolicy("g", "g"));
+        assertTrue(loaded.hasPolicy("g", "g", Arrays.asList("alice", "admin", "domain1")));
+    }
+
+    @Test
+    public void testStaleOrMissingSnapshotIsIgnored() throws IOException {
+        Model model = newModel();
+        new FileAdapter("examples/rbac_with_domains_policy.csv").loadPolicy(model);
+        PolicySnapshot snapshot = new PolicySnapshot(folder.newFolder().toPath().resolve("policy.snapshot"));
+        assertFalse(snapshot.load(newModel(), 0));
+
+        snapshot.save(model, 3);
+        Model loaded = newModel();
+        assertFalse(snapshot.load(loaded, 4));
+        assertTrue(loaded.getPolicy("p", "p").isEmpty());
+    }
+}
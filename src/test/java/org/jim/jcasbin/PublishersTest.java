@@ -0,0 +1,94 @@
+package org.jim.jcasbin;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PublishersTest {
+    /**
+     * Emits 0..count-1 synchronously on request and records the largest outstanding demand.
+     */
+    private static class RangePublisher implements Publisher<Integer> {
+        private final int count;
+        private long maxOutstanding;
+        private boolean cancelled;
+
+        RangePublisher(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super Integer> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                private int next;
+                private long requested;
+                private boolean emitting;
+
+                @Override
+                public void request(long n) {
+                    requested += n;
+                    maxOutstanding = Math.max(maxOutstanding, requested);
+                    if (emitting) return;
+                    emitting = true;
+                    while (requested > 0 && next < count && !cancelled) {
+                        requested--;
+                        subscriber.onNext(next++);
+                    }
+                    emitting = false;
+                    if (next == count && !cancelled) {
+                        cancelled = true;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testForEachBoundsDemand() {
+        RangePublisher publisher = new RangePublisher(1000);
+        List<Integer> items = new ArrayList<>();
+        Publishers.forEach(publisher, 10, items::add).join();
+        assertEquals(1000, items.size());
+        assertEquals(999, (int) items.get(999));
+        assertTrue(publisher.maxOutstanding <= 10);
+    }
+
+    @Test
+    public void testForEachCancelsOnFailure() {
+        RangePublisher publisher = new RangePublisher(1000);
+        RuntimeException failure = new IllegalStateException("boom");
+        CompletableFuture<Void> done = Publishers.forEach(publisher, 10, item -> {
+            if (item == 5) throw failure;
+        });
+        try {
+            done.join();
+            fail();
+        } catch (CompletionException e) {
+            assertEquals(failure, e.getCause());
+        }
+        assertTrue(publisher.cancelled);
+    }
+
+    @Test
+    public void testLast() {
+        assertEquals(Integer.valueOf(2), Publishers.last(new RangePublisher(3)).join());
+        assertNull(Publishers.last(new RangePublisher(0)).join());
+    }
+}
@@ -0,0 +1,102 @@
+package org.jim.jcasbin;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import org.bson.BsonDocument;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryPolicyTest {
+    private static final RetryPolicy POLICY = RetryPolicy.builder()
+            .maxAttempts(3)
+            .initialBackoffMS(1)
+            .maxBackoffMS(4)
+            .build();
+
+    private static MongoException socketError() {
+        return new MongoSocketReadException("reset", new ServerAddress());
+    }
+
+    static MongoBulkWriteException duplicate(String index) {
+        BulkWriteError error = new BulkWriteError(11000,
+                "E11000 duplicate key error collection: casbin.casbin_rule index: " + index + " dup key: { }",
+                new BsonDocument(), 0);
+        return new MongoBulkWriteException(BulkWriteResult.unacknowledged(),
+                Collections.singletonList(error), null, new ServerAddress(), Collections.emptySet());
+    }
+
+    @Test
+    public void testClassifiesErrors() {
+        assertTrue(POLICY.isRetryable(socketError()));
+        MongoException labelled = new MongoException("stepdown");
+        labelled.addLabel(RetryPolicy.RETRYABLE_WRITE_ERROR);
+        assertTrue(POLICY.isRetryable(labelled));
+        assertFalse(POLICY.isRetryable(new MongoException("bad value")));
+        assertFalse(POLICY.isRetryable(duplicate("_id_")));
+        assertFalse(POLICY.isRetryable(new IllegalStateException()));
+    }
+
+    @Test
+    public void testRetriesTransientErrors() {
+        AtomicInteger attempts = new AtomicInteger();
+        POLICY.run(attempt -> {
+            assertEquals(attempts.incrementAndGet(), attempt);
+            if (attempt < 3) throw socketError();
+        });
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testGivesUp() {
+        AtomicInteger attempts = new AtomicInteger();
+        MongoException permanent = new MongoException("bad value");
+        try {
+            POLICY.run(attempt -> {
+                attempts.incrementAndGet();
+                throw permanent;
+            });
+            fail();
+        } catch (MongoException e) {
+            assertSame(permanent, e);
+        }
+        assertEquals(1, attempts.get());
+
+        try {
+            POLICY.run(attempt -> {
+                throw socketError();
+            });
+            fail();
+        } catch (MongoException e) {
+            assertEquals(1, e.getSuppressed().length);
+        }
+    }
+
+    @Test
+    public void testBackoffIsBounded() {
+        for (int retry = 1; retry < 10; retry++) {
+            long backoff = POLICY.backoff(retry);
+            assertTrue(backoff >= 0 && backoff <= 4);
+        }
+        RetryPolicy steady = RetryPolicy.builder().initialBackoffMS(10).jitter(0).build();
+        assertEquals(10, steady.backoff(1));
+        assertEquals(40, steady.backoff(3));
+    }
+
+    @Test
+    public void testRecognisesIdDuplicates() {
+        assertTrue(ChunkedInserter.onlyIdDuplicates(duplicate("_id_")));
+        assertFalse(ChunkedInserter.onlyIdDuplicates(duplicate(IndexManager.POLICY_INDEX_NAME)));
+    }
+}
@@ -0,0 +1,83 @@
+package org.jim.jcasbin;
+
+import com.mongodb.client.model.ReplaceOneModel;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.jim.jcasbin.codec.CasbinRuleCodec;
+import org.jim.jcasbin.domain.CasbinRule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RuleDocumentsTest {
+    private static byte[] bytes(RawBsonDocument document) {
+        return Arrays.copyOf(document.getByteBuffer().array(), document.getByteBuffer().remaining());
+    }
+
+    @Test
+    public void testEncodesLikeTheCodec() {
+        CasbinRule casbinRule = new CasbinRule();
+        casbinRule.setPtype("p");
+        casbinRule.setV0("alice");
+        casbinRule.setV1("data1");
+        casbinRule.setV2("read");
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        new CasbinRuleCodec().encode(new BsonBinaryWriter(buffer), casbinRule, EncoderContext.builder().build());
+
+        RawBsonDocument document = RuleDocuments.encode("p", 0, Arrays.asList("alice", "data1", "read", "", ""));
+        assertArrayEquals(buffer.toByteArray(), bytes(document));
+        assertEquals(buffer.getPosition(), RuleDocuments.size(document));
+    }
+
+    @Test
+    public void testEncodesIdFirst() {
+        CasbinRule casbinRule = new CasbinRule();
+        casbinRule.setId(new ObjectId());
+        casbinRule.setPtype("g");
+        casbinRule.setV0("alice");
+        casbinRule.setV1("admin");
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        new CasbinRuleCodec().encode(new BsonBinaryWriter(buffer), casbinRule, EncoderContext.builder().build());
+
+        RawBsonDocument document = RuleDocuments.encode(casbinRule.getId(), "g", 0, Arrays.asList("alice", "admin"));
+        assertArrayEquals(buffer.toByteArray(), bytes(document));
+    }
+
+    @Test
+    public void testEncodesFilterFromFieldIndex() {
+        RawBsonDocument filter = RuleDocuments.encode("g", 1, Arrays.asList("", "domain1"));
+        assertEquals(new BsonDocument("ptype", new BsonString("g")).append("v2", new BsonString("domain1")), filter);
+        assertNull(RuleDocuments.encode("p", 3, Arrays.asList("a", "b", "c", "d")));
+    }
+
+    @Test
+    public void testEncodesUtf8() {
+        String value = "é中😀\ud800x";
+        RawBsonDocument document = RuleDocuments.encode("p", 0, Arrays.asList(value));
+        assertEquals(value.getBytes(StandardCharsets.UTF_8).length, RuleDocuments.utf8Length(value));
+        assertEquals(new String(value.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8),
+                document.getString("v0").getValue());
+    }
+
+    @Test
+    public void testUpsertMatchesAbsentFieldsAsNullOrEmpty() {
+        RawBsonDocument document = RuleDocuments.encode("p", 0, Arrays.asList("alice", "data1"));
+        BsonDocument filter = ((ReplaceOneModel<RawBsonDocument>) RuleDocuments.upsert(document)).getFilter().toBsonDocument(null, null);
+        assertEquals(new BsonString("alice"), filter.get("v0"));
+        BsonDocument absent = new BsonDocument("$in", new BsonArray(Arrays.asList(BsonNull.VALUE, new BsonString(""))));
+        assertEquals(absent, filter.get("v2"));
+        assertEquals(absent, filter.get("v5"));
+    }
+}
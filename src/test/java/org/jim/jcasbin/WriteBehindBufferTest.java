@@ -0,0 +1,158 @@
+package org.jim.jcasbin;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteBehindBufferTest {
+    private final List<List<WriteModel<RawBsonDocument>>> groups = Collections.synchronizedList(new ArrayList<>());
+    private volatile RuntimeException failure;
+    private final Deque<RuntimeException> failures = new ConcurrentLinkedDeque<>();
+
+    @SuppressWarnings("unchecked")
+    private MongoCollection<RawBsonDocument> collection() {
+        return (MongoCollection<RawBsonDocument>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{MongoCollection.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("bulkWrite")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    if (this.failure != null) {
+                        throw this.failure;
+                    }
+                    RuntimeException next = this.failures.poll();
+                    if (next != null) {
+                        throw next;
+                    }
+                    this.groups.add(new ArrayList<>((List<WriteModel<RawBsonDocument>>) args[0]));
+                    return null;
+                });
+    }
+
+    private static WriteModel<RawBsonDocument> insert() {
+        return new InsertOneModel<>(RuleDocuments.encode("p", 0, Collections.singletonList("alice")));
+    }
+
+    @Test
+    public void testGroupsKeepSubmissionOrder() {
+        AtomicInteger written = new AtomicInteger();
+        MongoCollection<RawBsonDocument> collection = collection();
+        WriteBehindBuffer buffer = new WriteBehindBuffer(collection, 2, 60_000, (size, error) -> written.addAndGet(size), null, null);
+        WriteModel<RawBsonDocument> first = insert();
+        WriteModel<RawBsonDocument> second = new DeleteOneModel<>(new Document());
+        WriteModel<RawBsonDocument> third = insert();
+        AtomicInteger durable = new AtomicInteger();
+        buffer.submit(Collections.singletonList(first), durable::incrementAndGet);
+        buffer.submit(Collections.singletonList(second), durable::incrementAndGet);
+        buffer.submit(Collections.singletonList(third), durable::incrementAndGet);
+        buffer.close();
+
+        assertEquals(2, this.groups.size());
+        assertSame(first, this.groups.get(0).get(0));
+        assertSame(second, this.groups.get(0).get(1));
+        assertSame(third, this.groups.get(1).get(0));
+        assertEquals(3, durable.get());
+        assertEquals(3, written.get());
+    }
+
+    @Test
+    public void testLingerWritesPartialGroup() throws InterruptedException {
+        MongoCollection<RawBsonDocument> collection = collection();
+        WriteBehindBuffer buffer = new WriteBehindBuffer(collection, 100, 1, null, null, null);
+        buffer.submit(Collections.singletonList(insert()), null);
+        for (int i = 0; i < 500 && this.groups.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, this.groups.size());
+        buffer.close();
+    }
+
+    @Test
+    public void testFailureIsReportedByNextFlush() {
+        this.failure = new MongoException("boom");
+        MongoCollection<RawBsonDocument> collection = collection();
+        WriteBehindBuffer buffer = new WriteBehindBuffer(collection, 100, 60_000, null, null, null);
+        AtomicInteger durable = new AtomicInteger();
+        buffer.submit(Collections.singletonList(insert()), durable::incrementAndGet);
+        try {
+            buffer.flush().join();
+            fail();
+        } catch (CompletionException e) {
+            assertSame(this.failure, e.getCause());
+        }
+        assertEquals(0, durable.get());
+
+        // The failure is reported once.
+        this.failure = null;
+        buffer.flush().join();
+        buffer.close();
+        assertTrue(this.groups.isEmpty());
+    }
+
+    @Test
+    public void testFailedGroupReportsWrittenPrefix() {
+        // The second write fails validation; the first one is stored.
+        this.failures.add(new MongoBulkWriteException(BulkWriteResult.unacknowledged(),
+                Collections.singletonList(new BulkWriteError(121, "Document failed validation", new BsonDocument(), 1)),
+                null, new ServerAddress(), Collections.emptySet()));
+        AtomicInteger lostTrack = new AtomicInteger();
+        MongoCollection<RawBsonDocument> collection = collection();
+        WriteBehindBuffer buffer = new WriteBehindBuffer(collection, 100, 60_000, null, null, lostTrack::incrementAndGet);
+        List<String> durable = Collections.synchronizedList(new ArrayList<>());
+        buffer.submit(Collections.singletonList(insert()), () -> durable.add("first"));
+        buffer.submit(Collections.singletonList(insert()), () -> durable.add("second"));
+        buffer.submit(Collections.singletonList(insert()), () -> durable.add("third"));
+        try {
+            buffer.flush().join();
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof MongoBulkWriteException);
+        }
+        buffer.close();
+
+        assertEquals(Collections.singletonList("first"), durable);
+        assertEquals(1, lostTrack.get());
+    }
+
+    @Test
+    public void testRetryCarriesOnAfterIdDuplicate() {
+        MongoCollection<RawBsonDocument> collection = collection();
+        RetryPolicy retryPolicy = RetryPolicy.builder().initialBackoffMS(1).build();
+        WriteBehindBuffer buffer = new WriteBehindBuffer(collection, 100, 60_000, null, retryPolicy, null);
+        // The first attempt stores the first write and loses the acknowledgement.
+        this.failures.add(new MongoSocketReadException("reset", new ServerAddress()));
+        this.failures.add(RetryPolicyTest.duplicate("_id_"));
+        WriteModel<RawBsonDocument> second = insert();
+        buffer.submit(Arrays.asList(insert(), second), null);
+        buffer.flush().join();
+        buffer.close();
+
+        assertEquals(1, this.groups.size());
+        assertEquals(Collections.singletonList(second), this.groups.get(0));
+    }
+}
@@ -0,0 +1,61 @@
+package org.jim.jcasbin.codec;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonInt32;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+import org.jim.jcasbin.domain.CasbinRule;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class CasbinRuleCodecTest {
+    private final CasbinRuleCodec codec = new CasbinRuleCodec();
+
+    private CasbinRule decode(BsonDocument document) {
+        return codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+    }
+
+    @Test
+    public void testRoundTrip() {
+        CasbinRule casbinRule = new CasbinRule();
+        casbinRule.setId(new ObjectId());
+        casbinRule.setPtype("p");
+        casbinRule.setV0("alice");
+        casbinRule.setV1("data1");
+        casbinRule.setV2("read");
+
+        BsonDocument document = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(document), casbinRule, EncoderContext.builder().build());
+        assertFalse(document.containsKey("v3"));
+
+        CasbinRule decoded = decode(document);
+        assertEquals(casbinRule, decoded);
+        assertEquals(casbinRule.getId(), decoded.getId());
+        assertEquals(asList("p", "alice", "data1", "read"), decoded.toPolicy());
+    }
+
+    @Test
+    public void testSkipsUnknownFields() {
+        BsonDocument document = new BsonDocument("_id", new BsonObjectId())
+                .append("ptype", new BsonString("g"))
+                .append("v0", new BsonString("alice"))
+                .append("v1", new BsonString("data2_admin"))
+                .append("v2", BsonNull.VALUE)
+                .append("v9", new BsonString("ignored"))
+                .append("extra", new BsonDocument("nested", new BsonInt32(1)));
+
+        CasbinRule decoded = decode(document);
+        assertNull(decoded.getV2());
+        assertEquals(asList("g", "alice", "data2_admin"), decoded.toPolicy());
+    }
+}
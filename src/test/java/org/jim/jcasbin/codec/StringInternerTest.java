@@ -0,0 +1,29 @@
+package org.jim.jcasbin.codec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class StringInternerTest {
+    @Test
+    public void testBounded() {
+        StringInterner interner = StringInterner.bounded(1);
+        String alice = new String("alice");
+        assertSame(alice, interner.intern(alice));
+        assertSame(alice, interner.intern(new String("alice")));
+
+        // The dictionary is full, so new values are not canonicalized.
+        String bob = new String("bob");
+        assertSame(bob, interner.intern(bob));
+        assertNotSame(bob, interner.intern(new String("bob")));
+    }
+
+    @Test
+    public void testWeak() {
+        StringInterner interner = StringInterner.weak(10);
+        String alice = new String("alice");
+        assertSame(alice, interner.intern(alice));
+        assertSame(alice, interner.intern(new String("alice")));
+    }
+}
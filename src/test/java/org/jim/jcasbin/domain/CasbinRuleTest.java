@@ -0,0 +1,55 @@
+package org.jim.jcasbin.domain;
+
+import org.casbin.jcasbin.model.Model;
+import org.casbin.jcasbin.persist.file_adapter.FileAdapter;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+public class CasbinRuleTest {
+    @Test
+    public void testIterateCasbinRulesMergesDuplicates() {
+        Model model = Model.newModelFromFile("examples/rbac_model.conf");
+        new FileAdapter("examples/rbac_policy.csv").loadPolicy(model);
+        model.model.get("p").get("p").policy.add(asList("alice", "data1", "read"));
+        for (int i = 0; i < 5000; i++) {
+            model.addPolicy("p", "p", asList("user" + i, "data" + (i % 7), "read"));
+            model.model.get("p").get("p").policy.add(asList("user" + i, "data" + (i % 7), "read"));
+        }
+
+        Set<CasbinRule> expected = new HashSet<>();
+        model.model.get("p").get("p").policy.forEach(rule -> expected.add(rule(rule)));
+        model.model.get("g").get("g").policy.forEach(rule -> expected.add(rule("g", rule)));
+
+        List<CasbinRule> casbinRules = CasbinRule.transformToCasbinRule(model);
+        assertEquals(expected.size(), casbinRules.size());
+        assertEquals(expected, new HashSet<>(casbinRules));
+
+        Iterator<CasbinRule> iterator = CasbinRule.iterateCasbinRules(model, null);
+        int count = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(expected.size(), count);
+    }
+
+    private static CasbinRule rule(List<String> rule) {
+        return rule("p", rule);
+    }
+
+    private static CasbinRule rule(String ptype, List<String> rule) {
+        CasbinRule casbinRule = new CasbinRule();
+        casbinRule.setPtype(ptype);
+        for (int i = 0; i < rule.size(); i++) {
+            casbinRule.setByIndex(i + 1, rule.get(i));
+        }
+        return casbinRule;
+    }
+}
@@ -0,0 +1,42 @@
+package org.jim.jcasbin.domain;
+
+import org.casbin.jcasbin.model.Model;
+import org.casbin.jcasbin.persist.file_adapter.FileAdapter;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class PolicyDigestTest {
+    private static Model newModel() {
+        Model model = Model.newModelFromFile("examples/rbac_model.conf");
+        new FileAdapter("examples/rbac_policy.csv").loadPolicy(model);
+        return model;
+    }
+
+    @Test
+    public void testDigestIgnoresOrderAndDuplicates() {
+        Model model = newModel();
+        Model reordered = newModel();
+        Collections.reverse(reordered.model.get("p").get("p").policy);
+        reordered.model.get("p").get("p").policy.add(asList("alice", "data1", "read"));
+
+        assertEquals(PolicyDigest.of(model), PolicyDigest.of(reordered));
+    }
+
+    @Test
+    public void testDigestChangesWithPolicy() {
+        Model model = newModel();
+        Model changed = newModel();
+        changed.addPolicy("p", "p", asList("cathy", "data1", "read"));
+        assertNotEquals(PolicyDigest.of(model), PolicyDigest.of(changed));
+
+        Model moved = newModel();
+        moved.removePolicy("p", "p", asList("alice", "data1", "read"));
+        moved.addPolicy("p", "p", asList("alice", "data1read", ""));
+        assertNotEquals(PolicyDigest.of(model), PolicyDigest.of(moved));
+    }
+}